@@ -0,0 +1,93 @@
+package com.experoinc.javatest.benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.experoinc.javatest.DynamicProperty;
+import com.experoinc.javatest.DynamicPropertyFactory;
+import com.experoinc.javatest.Observer;
+
+/**
+ * A write to a base property propagated through <code>depth</code> levels of
+ * <code>fanOut</code> calculated properties each, down to a single sink. Every
+ * property of a level reads two neighbours of the level above, so the levels form
+ * a lattice of diamonds; with a fan-out of 1 it is a plain chain. Each write
+ * re-evaluates every calculated property once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PropagationBenchmark {
+
+	private static final Observer<Integer> NO_WRITE = new Observer<Integer>() {
+		@Override
+		public void observe(Integer value) {
+		}
+	};
+
+	@Param({ "1", "10", "50" })
+	public int depth;
+
+	@Param({ "1", "16", "128" })
+	public int fanOut;
+
+	private DynamicProperty<Integer> base;
+	private DynamicProperty<Integer> sink;
+
+	@Setup
+	public void setUp() {
+		base = DynamicPropertyFactory.create(0);
+		@SuppressWarnings("unchecked")
+		DynamicProperty<Integer>[] level = new DynamicProperty[] { base };
+		for (int d = 0; d < depth; d++) {
+			@SuppressWarnings("unchecked")
+			DynamicProperty<Integer>[] below = new DynamicProperty[fanOut];
+			for (int i = 0; i < fanOut; i++) {
+				below[i] = DynamicPropertyFactory.create(
+						sum(level[i % level.length], level[(i + 1) % level.length]), NO_WRITE);
+			}
+			level = below;
+		}
+		final DynamicProperty<Integer>[] last = level;
+		sink = DynamicPropertyFactory.create(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				int total = 0;
+				for (DynamicProperty<Integer> property : last) {
+					total += property.getValue();
+				}
+				return total;
+			}
+		}, NO_WRITE);
+	}
+
+	@Benchmark
+	public Integer setValue(WriteCounter counter) {
+		base.setValue(counter.next());
+		return sink.getValue();
+	}
+
+	private static Callable<Integer> sum(final DynamicProperty<Integer> left, final DynamicProperty<Integer> right) {
+		return new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return left.getValue() + right.getValue();
+			}
+		};
+	}
+}
@@ -0,0 +1,94 @@
+package com.experoinc.javatest.benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.experoinc.javatest.DynamicProperty;
+import com.experoinc.javatest.DynamicPropertyFactory;
+import com.experoinc.javatest.IntDynamicProperty;
+import com.experoinc.javatest.Observer;
+
+/**
+ * Reads of plain, primitive and calculated properties shared by every benchmark
+ * thread. Run with <code>-t 1</code>, <code>-t 4</code>, ... <code>-t max</code>
+ * to see how reads scale with the number of threads. {@link #getSynchronized()}
+ * is the baseline: a value behind a monitor, the way
+ * {@link DynamicProperty#getValue()} used to read it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReadBenchmark {
+
+	private DynamicProperty<Integer> plain;
+	private IntDynamicProperty primitive;
+	private DynamicProperty<Integer> calculated;
+	private SynchronizedHolder synchronizedHolder;
+
+	/**
+	 * A value read under its own monitor.
+	 */
+	static final class SynchronizedHolder {
+
+		private Integer value;
+
+		SynchronizedHolder(Integer value) {
+			this.value = value;
+		}
+
+		synchronized Integer getValue() {
+			return value;
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		plain = DynamicPropertyFactory.create(42);
+		primitive = DynamicPropertyFactory.createInt(42);
+		calculated = DynamicPropertyFactory.create(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return plain.getValue() + 1;
+			}
+		}, new Observer<Integer>() {
+			@Override
+			public void observe(Integer value) {
+			}
+		});
+		synchronizedHolder = new SynchronizedHolder(42);
+	}
+
+	@Benchmark
+	public Integer getValue() {
+		return plain.getValue();
+	}
+
+	@Benchmark
+	public int getInt() {
+		return primitive.getInt();
+	}
+
+	@Benchmark
+	public Integer getCalculatedValue() {
+		return calculated.getValue();
+	}
+
+	@Benchmark
+	public Integer getSynchronized() {
+		return synchronizedHolder.getValue();
+	}
+}
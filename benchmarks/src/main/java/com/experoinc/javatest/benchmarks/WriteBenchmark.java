@@ -0,0 +1,66 @@
+package com.experoinc.javatest.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.experoinc.javatest.DynamicProperty;
+import com.experoinc.javatest.DynamicPropertyFactory;
+import com.experoinc.javatest.Observer;
+
+/**
+ * Writes of a plain property with 0, 1 or 1000 observers notified inline, and
+ * subscription churn: subscribing an observer and closing the subscription.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriteBenchmark {
+
+	@Param({ "0", "1", "1000" })
+	public int subscribers;
+
+	private DynamicProperty<Integer> property;
+
+	@Setup
+	public void setUp(final Blackhole blackhole) {
+		property = DynamicPropertyFactory.create(0);
+		for (int i = 0; i < subscribers; i++) {
+			property.subscribe(new Observer<Integer>() {
+				@Override
+				public void observe(Integer value) {
+					blackhole.consume(value);
+				}
+			});
+		}
+	}
+
+	/** Every write is a change, so every observer is notified. */
+	@Benchmark
+	public void setValue(WriteCounter counter) {
+		property.setValue(counter.next());
+	}
+
+	@Benchmark
+	public void subscribeAndClose() throws Exception {
+		property.subscribe(new Observer<Integer>() {
+			@Override
+			public void observe(Integer value) {
+			}
+		}).close();
+	}
+}
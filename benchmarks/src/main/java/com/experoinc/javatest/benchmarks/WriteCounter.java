@@ -0,0 +1,29 @@
+package com.experoinc.javatest.benchmarks;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The next value a benchmark thread writes. Each thread counts up from its own
+ * range of 2^24 values, so with <code>-t</code> above 1 the threads share no
+ * counter and a write is a change even if another thread wrote last.
+ */
+@State(Scope.Thread)
+public class WriteCounter {
+
+	private static final AtomicInteger THREADS = new AtomicInteger();
+
+	private int next;
+
+	@Setup
+	public void setUp() {
+		next = THREADS.getAndIncrement() << 24;
+	}
+
+	public int next() {
+		return next++;
+	}
+}
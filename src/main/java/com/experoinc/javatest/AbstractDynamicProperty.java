@@ -0,0 +1,379 @@
+package com.experoinc.javatest;
+
+import java.io.Closeable;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * State shared by plain and calculated dynamic properties: the current value, the
+ * observers subscribed to it and the calculated properties that read it.
+ *
+ * @param <T>
+ */
+abstract class AbstractDynamicProperty<T> implements DynamicProperty<T> {
+
+	private static final Logger logger = LoggerFactory.getLogger(DynamicProperty.class);
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<AbstractDynamicProperty, PropertyStats> STATS =
+			AtomicReferenceFieldUpdater.newUpdater(AbstractDynamicProperty.class, PropertyStats.class, "stats");
+
+	/** Stands for <code>null</code> in mailboxes, which cannot hold it. */
+	private static final Object NULL_VALUE = new Object();
+
+	volatile T property;
+
+	/**
+	 * Set to a new {@link LogicalClock} tick after every change of
+	 * <code>property</code>, by the single thread allowed to change it. Read before
+	 * the value when capturing a dependency, so a change racing with an evaluation
+	 * is always detected.
+	 */
+	volatile long version;
+
+	private final SubscriberRegistry<CloseableProperty> callbacks = new SubscriberRegistry<CloseableProperty>();
+
+	private final Object notificationLock = new Object();
+	/** Version of the last value delivered to observers. Guarded by notificationLock. */
+	private long notifiedVersion;
+
+	/**
+	 * Calculated properties whose last evaluation read this property. Maintained by
+	 * {@link CalculatedDynamicProperty} as it re-captures its dependencies.
+	 */
+	final SubscriberRegistry<CalculatedDynamicProperty.Edge> dependents = new SubscriberRegistry<CalculatedDynamicProperty.Edge>();
+
+	/**
+	 * Topological rank used by {@link PropagationScheduler}: 0 for a plain property,
+	 * always greater than the height of every dependency for a calculated one.
+	 */
+	volatile int height;
+
+	/**
+	 * Id of the last change wave that queued this property for notification. Only
+	 * used to skip duplicates; a race between threads at worst queues it twice.
+	 */
+	long pendingWave;
+
+	/** Usage metrics, allocated on first use while {@link Metrics} are enabled. */
+	private volatile PropertyStats stats;
+
+	/**
+	 * Lock-free read: <code>property</code> is volatile, so a plain load already
+	 * observes the latest completed write. Readers never contend with writers.
+	 * If a calculated property is being evaluated on this thread the read is
+	 * recorded as one of its dependencies.
+	 */
+	@Override
+	public T getValue() {
+		DependencyTracker.Frame memo = DependencyTracker.recordRead(this);
+		T value = property;
+		if (memo != null) {
+			memo.recordValue(value);
+		}
+		return value;
+	}
+
+	@Override
+	public long getVersion() {
+		bringUpToDate();
+		return version;
+	}
+
+	/**
+	 * The current value, boxed if need be, without recording a dependency.
+	 * Call {@link #bringUpToDate()} first.
+	 */
+	Object currentValue() {
+		return property;
+	}
+
+	/**
+	 * Evaluates a property whose value is known to be out of date, before reading it.
+	 */
+	void bringUpToDate() {
+
+	}
+
+	/**
+	 * @return the metrics of this property, allocating them if need be
+	 */
+	PropertyStats stats() {
+		PropertyStats current = stats;
+		if (current == null) {
+			STATS.compareAndSet(this, null, new PropertyStats());
+			current = stats;
+		}
+		return current;
+	}
+
+	/**
+	 * @return the metrics of this property, or null if it was never used while
+	 *         metrics were enabled
+	 */
+	PropertyStats existingStats() {
+		return stats;
+	}
+
+	boolean hasObservers() {
+		return !callbacks.isEmpty();
+	}
+
+	int observerCount() {
+		return callbacks.size();
+	}
+
+	/**
+	 * Delivers the current value to every open subscription.
+	 * <p>
+	 * Deliveries for one property are serialized and only ever move forward in
+	 * version order: a notification overtaken by a later write delivers nothing,
+	 * the later one already delivered the newer value. The version is read before
+	 * the value, so the value delivered is never older than the version recorded.
+	 */
+	void notifyObservers() {
+		if (callbacks.isEmpty()) {
+			return;
+		}
+		synchronized (notificationLock) {
+			long current = version;
+			if (current <= notifiedVersion) {
+				return;
+			}
+			notifiedVersion = current;
+			deliver(callbacks.snapshot(), current);
+		}
+	}
+
+	/**
+	 * Reads the current value and hands it to every subscription, skipping empty
+	 * slots. Primitive properties override this to deliver without boxing.
+	 */
+	void deliver(AtomicReferenceArray<CloseableProperty> subscriptions, long valueVersion) {
+		T value = property;
+		for (int i = 0; i < subscriptions.length(); i++) {
+			CloseableProperty subscription = subscriptions.get(i);
+			if (subscription != null) {
+				subscription.deliver(value, valueVersion);
+			}
+		}
+	}
+
+	@Override
+	public Closeable subscribe(Observer<T> callback) {
+		return subscribe(callback, NotificationMode.EVERY_VALUE);
+	}
+
+	@Override
+	public Closeable subscribe(Observer<T> callback, NotificationMode mode) {
+		CloseableProperty subscription = new CloseableProperty(Objects.requireNonNull(callback, "callback"), version,
+				DynamicPropertyFactory.observerExecutor(), Objects.requireNonNull(mode, "mode"));
+		callbacks.add(subscription);
+		return subscription;
+	}
+
+	/**
+	 * A registered observer. Closing it is idempotent, constant time and allowed
+	 * from inside any callback, including its own: it drops the observer reference
+	 * right away, so a notification walk that still holds the subscription skips it
+	 * and the observer can be collected.
+	 * <p>
+	 * If an observer executor was configured on {@link DynamicPropertyFactory} when
+	 * the subscription was made, values are queued in a per-subscription mailbox and
+	 * drained by one executor task at a time, so the observer still sees them in
+	 * order and never concurrently. A {@link NotificationMode#LATEST_VALUE} mailbox
+	 * is a single slot that newer values overwrite.
+	 */
+	final class CloseableProperty implements Closeable, SubscriberRegistry.Entry, Runnable {
+
+		private volatile Observer<T> observer;
+		/** Changes up to this version happened before the subscription and are not delivered. */
+		private final long subscribedAt;
+		private int slot = SubscriberRegistry.NOT_REGISTERED;
+
+		/** null for inline delivery on the notifying thread. */
+		private final Executor executor;
+		/** Pending values of an executor-dispatched {@link NotificationMode#EVERY_VALUE} subscription. */
+		private final Queue<Object> mailbox;
+		/** Pending value of an executor-dispatched {@link NotificationMode#LATEST_VALUE} subscription. */
+		private final AtomicReference<Object> latest;
+		/** Whether a drain task is scheduled or running. */
+		private final AtomicBoolean draining;
+
+		CloseableProperty(Observer<T> observer, long subscribedAt, Executor executor, NotificationMode mode) {
+			this.observer = observer;
+			this.subscribedAt = subscribedAt;
+			this.executor = executor;
+			boolean conflate = mode == NotificationMode.LATEST_VALUE;
+			this.mailbox = executor == null || conflate ? null : new ConcurrentLinkedQueue<Object>();
+			this.latest = executor == null || !conflate ? null : new AtomicReference<Object>();
+			this.draining = executor == null ? null : new AtomicBoolean();
+		}
+
+		void deliver(T value, long valueVersion) {
+			if (observer == null || valueVersion <= subscribedAt) {
+				return;
+			}
+			if (executor == null) {
+				observe(value);
+				return;
+			}
+			Object pending = value == null ? NULL_VALUE : value;
+			if (latest != null) {
+				latest.set(pending);
+			} else {
+				mailbox.offer(pending);
+			}
+			if (draining.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					draining.set(false);
+					logger.error("Observer executor rejected a notification " + e.getMessage(), e);
+				}
+			}
+		}
+
+		/**
+		 * Delivers a primitive value. An {@link IntObserver} notified inline gets it
+		 * unboxed; anything else, or a value queued for an executor, is boxed.
+		 */
+		@SuppressWarnings("unchecked")
+		void deliverInt(int value, long valueVersion) {
+			Observer<T> target = observer;
+			if (executor == null && target instanceof IntObserver) {
+				if (valueVersion > subscribedAt) {
+					boolean timed = Metrics.enabled;
+					long start = timed ? System.nanoTime() : 0L;
+					try {
+						((IntObserver) target).observe(value);
+					} catch (RuntimeException e) {
+						logger.error("Observer failed to handle a new value " + e.getMessage(), e);
+					}
+					if (timed) {
+						Metrics.observed(AbstractDynamicProperty.this, start);
+					}
+				}
+				return;
+			}
+			deliver((T) Integer.valueOf(value), valueVersion);
+		}
+
+		/**
+		 * @see #deliverInt(int, long)
+		 */
+		@SuppressWarnings("unchecked")
+		void deliverLong(long value, long valueVersion) {
+			Observer<T> target = observer;
+			if (executor == null && target instanceof LongObserver) {
+				if (valueVersion > subscribedAt) {
+					boolean timed = Metrics.enabled;
+					long start = timed ? System.nanoTime() : 0L;
+					try {
+						((LongObserver) target).observe(value);
+					} catch (RuntimeException e) {
+						logger.error("Observer failed to handle a new value " + e.getMessage(), e);
+					}
+					if (timed) {
+						Metrics.observed(AbstractDynamicProperty.this, start);
+					}
+				}
+				return;
+			}
+			deliver((T) Long.valueOf(value), valueVersion);
+		}
+
+		/**
+		 * @see #deliverInt(int, long)
+		 */
+		@SuppressWarnings("unchecked")
+		void deliverDouble(double value, long valueVersion) {
+			Observer<T> target = observer;
+			if (executor == null && target instanceof DoubleObserver) {
+				if (valueVersion > subscribedAt) {
+					boolean timed = Metrics.enabled;
+					long start = timed ? System.nanoTime() : 0L;
+					try {
+						((DoubleObserver) target).observe(value);
+					} catch (RuntimeException e) {
+						logger.error("Observer failed to handle a new value " + e.getMessage(), e);
+					}
+					if (timed) {
+						Metrics.observed(AbstractDynamicProperty.this, start);
+					}
+				}
+				return;
+			}
+			deliver((T) Double.valueOf(value), valueVersion);
+		}
+
+		/**
+		 * Drains the mailbox on the executor.
+		 */
+		@Override
+		@SuppressWarnings("unchecked")
+		public void run() {
+			do {
+				Object next;
+				while ((next = takePending()) != null) {
+					observe(next == NULL_VALUE ? null : (T) next);
+				}
+				draining.set(false);
+				// a value queued after the last take but before the flag was cleared
+			} while (hasPending() && draining.compareAndSet(false, true));
+		}
+
+		private Object takePending() {
+			return latest != null ? latest.getAndSet(null) : mailbox.poll();
+		}
+
+		private boolean hasPending() {
+			return latest != null ? latest.get() != null : !mailbox.isEmpty();
+		}
+
+		private void observe(T value) {
+			Observer<T> target = observer;
+			if (target == null) {
+				return;
+			}
+			boolean timed = Metrics.enabled;
+			long start = timed ? System.nanoTime() : 0L;
+			try {
+				target.observe(value);
+			} catch (RuntimeException e) {
+				logger.error("Observer failed to handle a new value " + e.getMessage(), e);
+			}
+			if (timed) {
+				Metrics.observed(AbstractDynamicProperty.this, start);
+			}
+		}
+
+		@Override
+		public void close() {
+			if (observer != null) {
+				observer = null;
+				callbacks.remove(this);
+			}
+		}
+
+		@Override
+		public int slot() {
+			return slot;
+		}
+
+		@Override
+		public void slot(int slot) {
+			this.slot = slot;
+		}
+	}
+}
@@ -0,0 +1,491 @@
+package com.experoinc.javatest;
+
+import java.io.Closeable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link DynamicProperty} whose value is the result of a read function.
+ * <p>
+ * Every evaluation runs inside a {@link DependencyTracker} frame. The properties read
+ * are compared with the previous evaluation and only the edges that changed are
+ * subscribed or released, so a re-evaluation that reads the same dependencies as
+ * last time does not allocate or touch any other property.
+ * <p>
+ * A lazy property is not evaluated when created, nor by a change wave while
+ * nobody subscribes to it: the wave only marks it stale and passes the change on
+ * to its dependents. The next read, or the next subscription, evaluates it.
+ * <p>
+ * A memoizing property keeps its latest results in a {@link MemoCache} and skips
+ * the read function when the dependencies are back to values already seen.
+ * <p>
+ * Two safeguards keep a faulty read function from hanging the writer. A newly read
+ * dependency that itself depends on this property, i.e. a dependency cycle, is
+ * rejected before its edge is added. And a property evaluated more than
+ * {@link #evaluationBudget} times in one change wave, because its read function
+ * keeps changing its own dependencies, stops being evaluated. Both fail the write,
+ * or the creation, with an {@link IllegalStateException} naming the properties.
+ *
+ * @param <T>
+ */
+final class CalculatedDynamicProperty<T> extends AbstractDynamicProperty<T> {
+
+	private static final Logger logger = LoggerFactory.getLogger(DynamicProperty.class);
+
+	private static final AbstractDynamicProperty<?>[] NO_DEPENDENCIES = new AbstractDynamicProperty<?>[0];
+	private static final Edge[] NO_EDGES = new Edge[0];
+
+	/** Weak edges whose dependent has been collected. */
+	private static final ReferenceQueue<CalculatedDynamicProperty<?>> RELEASED_EDGES = new ReferenceQueue<CalculatedDynamicProperty<?>>();
+
+	/*
+	 * Evaluation state machine. A property is evaluated by at most one thread at a
+	 * time: whoever moves it to EVALUATING owns it until it returns to IDLE. Changes
+	 * arriving meanwhile only move it to DIRTY, however many there are, and the owner
+	 * evaluates once more when it sees DIRTY.
+	 */
+	private static final int IDLE = 0;
+	private static final int QUEUED = 1;
+	private static final int EVALUATING = 2;
+	private static final int DIRTY = 3;
+
+	static final int DEFAULT_EVALUATION_BUDGET = 100;
+
+	/** Yields before a reader waiting for another thread to evaluate starts parking. */
+	private static final int REFRESH_SPINS = 16;
+	/** Longest a waiting reader parks between checks. */
+	private static final long MAX_REFRESH_PARK_NANOS = 1000000;
+
+	/** Evaluations of one property allowed in one change wave. */
+	static volatile int evaluationBudget = DEFAULT_EVALUATION_BUDGET;
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<CalculatedDynamicProperty> STATE =
+			AtomicIntegerFieldUpdater.newUpdater(CalculatedDynamicProperty.class, "state");
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<AbstractDynamicProperty> HEIGHT =
+			AtomicIntegerFieldUpdater.newUpdater(AbstractDynamicProperty.class, "height");
+
+	private final Callable<T> read;
+	private final Observer<T> write;
+	/** A result equivalent to the current value is not a change. */
+	private final Equivalence<? super T> equivalence;
+
+	/** Whether dependencies only reference this property weakly. */
+	private final boolean weak;
+	/** Whether change waves may defer evaluation to the next read. */
+	private final boolean lazy;
+	/** Set when a wave deferred an evaluation; cleared by whoever evaluates next. */
+	private volatile boolean stale;
+	/** Past results, or null if not memoizing. Guarded by the EVALUATING state. */
+	private final MemoCache<T> memo;
+
+	/** Properties read by the last evaluation, in first-read order. */
+	private AbstractDynamicProperty<?>[] dependencies = NO_DEPENDENCIES;
+	/** Registration of this property with each of <code>dependencies</code>. */
+	private Edge[] edges = NO_EDGES;
+
+	private volatile int state = EVALUATING;
+
+	/**
+	 * The wave of the last evaluation, and the evaluations made in it. Guarded by
+	 * the EVALUATING state.
+	 */
+	private long budgetWave;
+	private int evaluationsInWave;
+
+	//Constructor
+	CalculatedDynamicProperty(Callable<T> read, Observer<T> write, Equivalence<? super T> equivalence, boolean weak,
+			boolean lazy, int memoSize) {
+		this.read = read;
+		this.write = write;
+		this.equivalence = equivalence;
+		this.weak = weak;
+		this.lazy = lazy;
+		this.memo = memoSize > 0 ? new MemoCache<T>(memoSize) : null;
+		this.height = 1;
+		if (lazy) {
+			stale = true;
+			state = IDLE;
+		} else {
+			evaluateOwned();
+		}
+	}
+
+	/**
+	 * Evaluates a stale lazy property before reading it.
+	 */
+	@Override
+	public T getValue() {
+		bringUpToDate();
+		return super.getValue();
+	}
+
+	@Override
+	void bringUpToDate() {
+		if (stale) {
+			refresh();
+		}
+	}
+
+	/**
+	 * A lazy property becomes eager while it has subscribers, so it is brought up
+	 * to date first.
+	 */
+	@Override
+	public Closeable subscribe(Observer<T> callback, NotificationMode mode) {
+		if (stale) {
+			refresh();
+		}
+		Closeable subscription = super.subscribe(callback, mode);
+		// a wave that did not see the subscription yet may have deferred an evaluation
+		if (stale && refresh()) {
+			PropagationScheduler.propagate(this);
+		}
+		return subscription;
+	}
+
+	/**
+	 * Only hands the value to the write function; the value of this property changes
+	 * when a dependency it read changes.
+	 */
+	@Override
+	public void setValue(T value) {
+		if (Metrics.enabled) {
+			Metrics.written(this);
+		}
+		write.observe(value);
+	}
+
+	/**
+	 * Called for each dependent of a changed property.
+	 *
+	 * @return true if the caller must queue this property for evaluation, false if
+	 *         an evaluation that will see the change is already pending or running
+	 */
+	boolean markQueued() {
+		for (;;) {
+			switch (state) {
+			case IDLE:
+				if (STATE.compareAndSet(this, IDLE, QUEUED)) {
+					return true;
+				}
+				break;
+			case EVALUATING:
+				if (STATE.compareAndSet(this, EVALUATING, DIRTY)) {
+					return false;
+				}
+				break;
+			default:
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Gives up a queued evaluation that will not run.
+	 */
+	void clearQueued() {
+		state = IDLE;
+	}
+
+	/**
+	 * Evaluates a property previously claimed with {@link #markQueued()}.
+	 *
+	 * @return true if the value of this property changed
+	 */
+	boolean evaluateQueued() {
+		if (lazy && defer()) {
+			return true;
+		}
+		state = EVALUATING;
+		return evaluateOwned();
+	}
+
+	/**
+	 * Marks a queued lazy property stale instead of evaluating it, unless it has
+	 * subscribers. Stale is set before looking for subscribers, and subscribing
+	 * looks for stale after registering, so one of the two always evaluates.
+	 *
+	 * @return true if the evaluation was deferred; its dependents must then be
+	 *         queued, as it may have changed
+	 */
+	private boolean defer() {
+		stale = true;
+		if (hasObservers()) {
+			stale = false;
+			return false;
+		}
+		state = IDLE;
+		return true;
+	}
+
+	/**
+	 * Evaluates a stale property on the calling thread. If another thread owns it,
+	 * waits for that thread to finish, parking once it takes a while, e.g. for a
+	 * batch queuing it on that thread to end. If this thread's own wave or batch
+	 * has it queued, that wave will get to it: the current value is returned, and
+	 * the reader is queued again once it is evaluated.
+	 *
+	 * @return true if the value changed
+	 */
+	private boolean refresh() {
+		long park = 1000;
+		for (int attempt = 0; stale; attempt++) {
+			if (STATE.compareAndSet(this, IDLE, EVALUATING)) {
+				stale = false;
+				return evaluateOwned();
+			}
+			if (PropagationScheduler.isPropagating()) {
+				return false;
+			}
+			if (attempt < REFRESH_SPINS) {
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(park);
+				park = Math.min(2 * park, MAX_REFRESH_PARK_NANOS);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Evaluates until no change arrived during the last evaluation, then releases
+	 * ownership. Must only be called by the thread that moved the state to EVALUATING.
+	 */
+	private boolean evaluateOwned() {
+		long before = version;
+		long wave = PropagationScheduler.currentWave();
+		if (wave == 0 || wave != budgetWave) {
+			// outside a wave, only the evaluations repeated by this call count
+			budgetWave = wave;
+			evaluationsInWave = 0;
+		}
+		boolean released = false;
+		try {
+			do {
+				if (++evaluationsInWave > evaluationBudget) {
+					throw new IllegalStateException("Calculated property " + PropertyRegistry.describe(this)
+							+ " was evaluated more than " + evaluationBudget
+							+ " times in one change wave: its read function keeps changing its own dependencies");
+				}
+				evaluate();
+				if (STATE.compareAndSet(this, EVALUATING, IDLE)) {
+					released = true;
+				} else {
+					state = EVALUATING;
+				}
+			} while (!released);
+		} finally {
+			if (!released) {
+				state = IDLE;
+			}
+		}
+		return version != before;
+	}
+
+	/**
+	 * Runs the read function once, or takes a memoized result, re-captures the
+	 * dependencies and stores the result. Marks this property DIRTY if a dependency
+	 * changed after it was read, including one that was not subscribed yet.
+	 */
+	private void evaluate() {
+		DependencyTracker.Frame frame = DependencyTracker.begin(memo != null);
+		try {
+			MemoCache.Entry<T> hit = memo == null ? null : memo.lookup(frame);
+			T result;
+			try {
+				if (hit != null) {
+					result = hit.result;
+				} else if (Metrics.enabled || Tracing.slowEvaluationNanos > 0) {
+					long start = System.nanoTime();
+					result = read.call();
+					long elapsed = System.nanoTime() - start;
+					if (Metrics.enabled) {
+						Metrics.evaluated(this, elapsed);
+					}
+					Tracing.evaluated(this, elapsed);
+				} else {
+					result = read.call();
+				}
+			} catch (Exception e) {
+				// keep what was read so far so a later change can retry the evaluation
+				updateDependencies(frame);
+				logger.error("Error evaluating calculated property " + e.getMessage(), e);
+				return;
+			}
+			// a dependency cycle fails the evaluation instead of being logged
+			updateDependencies(frame);
+			if (memo != null && hit == null && !frame.changedSinceRead()) {
+				memo.store(dependencies, frame, result);
+			}
+			if (!equivalence.equivalent(property, result)) {
+				property = result;
+				version = LogicalClock.tick();
+			}
+		} finally {
+			if (frame.changedSinceRead()) {
+				STATE.compareAndSet(this, EVALUATING, DIRTY);
+			}
+			DependencyTracker.end(frame);
+		}
+	}
+
+	/**
+	 * @return the properties read by the last evaluation, in first-read order; not
+	 *         to be modified
+	 */
+	AbstractDynamicProperty<?>[] dependencies() {
+		return dependencies;
+	}
+
+	private void updateDependencies(DependencyTracker.Frame frame) {
+		AbstractDynamicProperty<?>[] previous = dependencies;
+		if (frame.sameAs(previous)) {
+			return;
+		}
+		AbstractDynamicProperty<?>[] next = frame.toArray();
+		Edge[] nextEdges = new Edge[next.length];
+		for (int i = 0; i < previous.length; i++) {
+			int kept = frame.indexOf(previous[i]);
+			if (kept >= 0) {
+				nextEdges[kept] = edges[i];
+			}
+		}
+		for (int i = 0; i < next.length; i++) {
+			if (nextEdges[i] == null) {
+				checkNoCycle(next[i]);
+			}
+		}
+		for (int i = 0; i < previous.length; i++) {
+			if (frame.indexOf(previous[i]) < 0) {
+				previous[i].dependents.remove(edges[i]);
+			}
+		}
+		int rank = 1;
+		for (int i = 0; i < next.length; i++) {
+			if (nextEdges[i] == null) {
+				nextEdges[i] = new Edge(this, next[i], weak);
+				next[i].dependents.add(nextEdges[i]);
+			}
+			rank = Math.max(rank, next[i].height + 1);
+		}
+		dependencies = next;
+		edges = nextEdges;
+		raiseHeight(rank);
+	}
+
+	/**
+	 * Fails if <code>dependency</code> is this property or depends on it, before an
+	 * edge closing the cycle is added.
+	 * <p>
+	 * Only properties above this one can depend on it, so the search only goes
+	 * through those; for a property nothing depends on yet, such as a new one, it
+	 * does not even start.
+	 *
+	 * @throws IllegalStateException naming the properties in the cycle
+	 */
+	private void checkNoCycle(AbstractDynamicProperty<?> dependency) {
+		if (dependency != this && (dependents.isEmpty() || dependency.height <= height)) {
+			return;
+		}
+		// reached from, towards the dependency
+		IdentityHashMap<AbstractDynamicProperty<?>, AbstractDynamicProperty<?>> reachedFrom = new IdentityHashMap<AbstractDynamicProperty<?>, AbstractDynamicProperty<?>>();
+		ArrayDeque<AbstractDynamicProperty<?>> pending = new ArrayDeque<AbstractDynamicProperty<?>>();
+		reachedFrom.put(dependency, dependency);
+		pending.push(dependency);
+		while (!pending.isEmpty()) {
+			AbstractDynamicProperty<?> next = pending.pop();
+			if (next == this) {
+				StringBuilder cycle = new StringBuilder(PropertyRegistry.describe(this));
+				for (AbstractDynamicProperty<?> step = this; step != dependency;) {
+					step = reachedFrom.get(step);
+					cycle.insert(0, PropertyRegistry.describe(step) + " -> ");
+				}
+				throw new IllegalStateException(
+						"Dependency cycle: " + PropertyRegistry.describe(this) + " -> " + cycle);
+			}
+			if (next instanceof CalculatedDynamicProperty) {
+				for (AbstractDynamicProperty<?> read : ((CalculatedDynamicProperty<?>) next).dependencies) {
+					if ((read == this || read.height > height) && !reachedFrom.containsKey(read)) {
+						reachedFrom.put(read, next);
+						pending.push(read);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Heights only ever grow: a height above every dependency's remains a valid
+	 * topological rank when a dependency is released.
+	 */
+	private void raiseHeight(int minimum) {
+		int current;
+		while ((current = height) < minimum) {
+			if (HEIGHT.compareAndSet(this, current, minimum)) {
+				AtomicReferenceArray<Edge> dependentEdges = dependents.snapshot();
+				for (int i = 0; i < dependentEdges.length(); i++) {
+					Edge edge = dependentEdges.get(i);
+					CalculatedDynamicProperty<?> dependent = edge == null ? null : edge.get();
+					if (dependent != null) {
+						dependent.raiseHeight(minimum + 1);
+					}
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Unregisters the edges of weakly referenced properties that have been garbage
+	 * collected. Cheap when there are none; called before every change wave.
+	 */
+	static void releaseCollectedEdges() {
+		Edge edge;
+		while ((edge = (Edge) RELEASED_EDGES.poll()) != null) {
+			edge.source.dependents.remove(edge);
+		}
+	}
+
+	/**
+	 * One dependency edge: the entry a calculated property holds in the
+	 * {@link AbstractDynamicProperty#dependents} of a property it read.
+	 * <p>
+	 * A strong edge also keeps the dependent in a field, so {@link #get()} never
+	 * returns <code>null</code> for it. A weak edge only refers to the dependent
+	 * through the reference itself, and is queued for removal once it is collected.
+	 */
+	static final class Edge extends WeakReference<CalculatedDynamicProperty<?>> implements SubscriberRegistry.Entry {
+
+		final AbstractDynamicProperty<?> source;
+		@SuppressWarnings("unused")
+		private final CalculatedDynamicProperty<?> strong;
+		private int slot = SubscriberRegistry.NOT_REGISTERED;
+
+		Edge(CalculatedDynamicProperty<?> dependent, AbstractDynamicProperty<?> source, boolean weak) {
+			super(dependent, weak ? RELEASED_EDGES : null);
+			this.source = source;
+			this.strong = weak ? null : dependent;
+		}
+
+		@Override
+		public int slot() {
+			return slot;
+		}
+
+		@Override
+		public void slot(int slot) {
+			this.slot = slot;
+		}
+	}
+}
@@ -0,0 +1,456 @@
+package com.experoinc.javatest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Flattens configuration files into dotted keys and typed scalar values.
+ * <p>
+ * Nested mappings become dotted keys (<code>server: {port: 80}</code> is
+ * <code>server.port</code>) and sequence items are numbered from 0
+ * (<code>hosts.0</code>, <code>hosts.1</code>). YAML and JSON files are read a
+ * line or a token at a time, never as a whole string, but every value they hold is
+ * collected into the output map.
+ * <p>
+ * Scalars are typed as <code>Integer</code>, <code>Long</code>,
+ * <code>Double</code>, <code>Boolean</code>, <code>String</code> or
+ * <code>null</code>. In <code>.properties</code> files every value is a string;
+ * {@link PropertyFileLoader} converts it to the type of the property it is
+ * applied to.
+ */
+final class ConfigFileParser {
+
+	private ConfigFileParser() {
+
+	}
+
+	static void parseProperties(Reader in, Map<String, Object> out) throws IOException {
+		Properties properties = new Properties();
+		properties.load(in);
+		for (String key : properties.stringPropertyNames()) {
+			out.put(key, properties.getProperty(key));
+		}
+	}
+
+	/**
+	 * Parses the block style subset of YAML used by configuration files: nested
+	 * mappings, sequences of scalars, plain, single and double quoted scalars and
+	 * comments. Anchors, tags, multi-line scalars and flow collections are not
+	 * supported.
+	 */
+	static void parseYaml(Reader in, Map<String, Object> out) throws IOException {
+		BufferedReader lines = new BufferedReader(in);
+		// key prefix and indentation of every open mapping, outermost first
+		ArrayList<String> prefixes = new ArrayList<String>();
+		ArrayList<Integer> indents = new ArrayList<Integer>();
+		ArrayList<Integer> nextItem = new ArrayList<Integer>();
+		prefixes.add("");
+		indents.add(-1);
+		nextItem.add(0);
+		String line;
+		int number = 0;
+		while ((line = lines.readLine()) != null) {
+			number++;
+			String content = stripComment(line);
+			int indent = 0;
+			while (indent < content.length() && content.charAt(indent) == ' ') {
+				indent++;
+			}
+			if (indent == content.length() || content.startsWith("---") || content.startsWith("...")) {
+				continue;
+			}
+			if (content.charAt(indent) == '\t') {
+				throw new IOException("Line " + number + ": tabs are not allowed for indentation");
+			}
+			String text = content.substring(indent).trim();
+			boolean sequenceItem = text.equals("-") || text.startsWith("- ");
+			for (;;) {
+				int last = indents.size() - 1;
+				int open = indents.get(last);
+				// the items of a sequence may sit at the indentation of its own key
+				if (indent < open || indent == open && !sequenceItem) {
+					prefixes.remove(last);
+					indents.remove(last);
+					nextItem.remove(last);
+				} else {
+					break;
+				}
+			}
+			String parent = prefixes.get(prefixes.size() - 1);
+			if (sequenceItem) {
+				int item = nextItem.get(nextItem.size() - 1);
+				nextItem.set(nextItem.size() - 1, item + 1);
+				String value = text.substring(1).trim();
+				if (value.isEmpty() || isKeyValue(value)) {
+					throw new IOException("Line " + number + ": only sequences of scalars are supported");
+				}
+				out.put(parent + item, scalar(value, number));
+				continue;
+			}
+			int colon = keySeparator(text);
+			if (colon < 0) {
+				throw new IOException("Line " + number + ": expected 'key: value'");
+			}
+			String key = parent + unquote(text.substring(0, colon).trim(), number);
+			String value = text.substring(colon + 1).trim();
+			if (value.isEmpty()) {
+				// a nested mapping or sequence follows
+				prefixes.add(key + ".");
+				indents.add(indent);
+				nextItem.add(0);
+			} else {
+				out.put(key, scalar(value, number));
+			}
+		}
+	}
+
+	/**
+	 * Parses a JSON document whose top level is an object.
+	 */
+	static void parseJson(Reader in, Map<String, Object> out) throws IOException {
+		JsonTokenizer tokens = new JsonTokenizer(in);
+		if (tokens.next() != '{') {
+			throw tokens.error("expected an object");
+		}
+		parseJsonObject(tokens, "", out);
+		if (tokens.next() != -1) {
+			throw tokens.error("unexpected content after the top-level object");
+		}
+	}
+
+	private static void parseJsonObject(JsonTokenizer tokens, String prefix, Map<String, Object> out) throws IOException {
+		int c = tokens.next();
+		if (c == '}') {
+			return;
+		}
+		for (;;) {
+			if (c != '"') {
+				throw tokens.error("expected a member name");
+			}
+			String key = prefix + tokens.string();
+			if (tokens.next() != ':') {
+				throw tokens.error("expected ':'");
+			}
+			parseJsonValue(tokens, tokens.next(), key, out);
+			c = tokens.next();
+			if (c == '}') {
+				return;
+			}
+			if (c != ',') {
+				throw tokens.error("expected ',' or '}'");
+			}
+			c = tokens.next();
+		}
+	}
+
+	private static void parseJsonValue(JsonTokenizer tokens, int c, String key, Map<String, Object> out) throws IOException {
+		switch (c) {
+		case '{':
+			parseJsonObject(tokens, key + ".", out);
+			break;
+		case '[':
+			int index = 0;
+			c = tokens.next();
+			if (c == ']') {
+				break;
+			}
+			for (;;) {
+				parseJsonValue(tokens, c, key + "." + index++, out);
+				c = tokens.next();
+				if (c == ']') {
+					break;
+				}
+				if (c != ',') {
+					throw tokens.error("expected ',' or ']'");
+				}
+				c = tokens.next();
+			}
+			break;
+		case '"':
+			out.put(key, tokens.string());
+			break;
+		default:
+			out.put(key, tokens.literal(c));
+		}
+	}
+
+	/**
+	 * Types a plain YAML scalar, or unquotes a quoted one.
+	 */
+	private static Object scalar(String value, int line) throws IOException {
+		if (value.startsWith("\"") || value.startsWith("'")) {
+			return unquote(value, line);
+		}
+		if (value.startsWith("{") || value.startsWith("[") || value.startsWith("&") || value.startsWith("*")
+				|| value.startsWith("!") || value.startsWith("|") || value.startsWith(">")) {
+			throw new IOException("Line " + line + ": unsupported YAML construct " + value);
+		}
+		switch (value) {
+		case "~":
+		case "null":
+		case "Null":
+		case "NULL":
+			return null;
+		case "true":
+		case "True":
+		case "TRUE":
+			return Boolean.TRUE;
+		case "false":
+		case "False":
+		case "FALSE":
+			return Boolean.FALSE;
+		default:
+			Object number = parseNumber(value);
+			return number != null ? number : value;
+		}
+	}
+
+	/**
+	 * @return an <code>Integer</code>, <code>Long</code> or <code>Double</code>, or
+	 *         null if <code>text</code> is not a decimal number
+	 */
+	static Object parseNumber(String text) {
+		int i = text.startsWith("-") || text.startsWith("+") ? 1 : 0;
+		if (i == text.length() || !Character.isDigit(text.charAt(i))) {
+			return null;
+		}
+		boolean integral = true;
+		for (; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '.' || c == 'e' || c == 'E') {
+				integral = false;
+			} else if (!Character.isDigit(c) && c != '-' && c != '+') {
+				return null;
+			}
+		}
+		try {
+			if (integral) {
+				long value = Long.parseLong(text);
+				if (value == (int) value) {
+					return Integer.valueOf((int) value);
+				}
+				return Long.valueOf(value);
+			}
+			return Double.valueOf(text);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static String unquote(String text, int line) throws IOException {
+		if (text.length() >= 2 && text.charAt(0) == '\'' && text.charAt(text.length() - 1) == '\'') {
+			return text.substring(1, text.length() - 1).replace("''", "'");
+		}
+		if (text.length() >= 2 && text.charAt(0) == '"' && text.charAt(text.length() - 1) == '"') {
+			StringBuilder unescaped = new StringBuilder(text.length());
+			for (int i = 1; i < text.length() - 1; i++) {
+				char c = text.charAt(i);
+				if (c == '\\' && i + 1 < text.length() - 1) {
+					c = text.charAt(++i);
+					switch (c) {
+					case 'n':
+						c = '\n';
+						break;
+					case 't':
+						c = '\t';
+						break;
+					case 'u':
+						if (i + 4 >= text.length() - 1) {
+							throw new IOException("Line " + line + ": invalid escape");
+						}
+						c = (char) Integer.parseInt(text.substring(i + 1, i + 5), 16);
+						i += 4;
+						break;
+					default:
+						// \\, \" and \/ stand for themselves
+					}
+				}
+				unescaped.append(c);
+			}
+			return unescaped.toString();
+		}
+		if (text.startsWith("\"") || text.startsWith("'")) {
+			throw new IOException("Line " + line + ": unterminated quoted scalar");
+		}
+		return text;
+	}
+
+	/**
+	 * @return the offset of the ': ' (or final ':') separating a key from its value,
+	 *         outside quotes, or -1
+	 */
+	private static int keySeparator(String text) {
+		char quote = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+			} else if (c == ':' && (i + 1 == text.length() || text.charAt(i + 1) == ' ')) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isKeyValue(String text) {
+		return !text.startsWith("\"") && !text.startsWith("'") && keySeparator(text) >= 0;
+	}
+
+	/**
+	 * Drops a <code>#</code> comment starting a line or following a space, outside quotes.
+	 */
+	private static String stripComment(String line) {
+		char quote = 0;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+			} else if (c == '#' && (i == 0 || line.charAt(i - 1) == ' ')) {
+				return line.substring(0, i);
+			}
+		}
+		return line;
+	}
+
+	/**
+	 * Reads JSON a token at a time through a small buffer.
+	 */
+	private static final class JsonTokenizer {
+		private final Reader in;
+		private final char[] buffer = new char[8192];
+		private int position;
+		private int limit;
+		private long offset;
+		private final StringBuilder text = new StringBuilder();
+
+		JsonTokenizer(Reader in) {
+			this.in = in;
+		}
+
+		/**
+		 * @return the next character that is not white space, or -1 at the end
+		 */
+		int next() throws IOException {
+			int c;
+			do {
+				c = read();
+			} while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+			return c;
+		}
+
+		/**
+		 * Reads the rest of a string whose opening quote was just read.
+		 */
+		String string() throws IOException {
+			text.setLength(0);
+			for (;;) {
+				int c = read();
+				if (c == -1) {
+					throw error("unterminated string");
+				} else if (c == '"') {
+					return text.toString();
+				} else if (c == '\\') {
+					c = read();
+					switch (c) {
+					case 'b':
+						text.append('\b');
+						break;
+					case 'f':
+						text.append('\f');
+						break;
+					case 'n':
+						text.append('\n');
+						break;
+					case 'r':
+						text.append('\r');
+						break;
+					case 't':
+						text.append('\t');
+						break;
+					case 'u':
+						int code = 0;
+						for (int i = 0; i < 4; i++) {
+							int digit = Character.digit(read(), 16);
+							if (digit < 0) {
+								throw error("invalid unicode escape");
+							}
+							code = code * 16 + digit;
+						}
+						text.append((char) code);
+						break;
+					case '"':
+					case '\\':
+					case '/':
+						text.append((char) c);
+						break;
+					default:
+						throw error("invalid escape");
+					}
+				} else {
+					text.append((char) c);
+				}
+			}
+		}
+
+		/**
+		 * Reads the rest of a number, <code>true</code>, <code>false</code> or
+		 * <code>null</code> starting with <code>first</code>.
+		 */
+		Object literal(int first) throws IOException {
+			text.setLength(0);
+			int c = first;
+			while (c != -1 && c != ',' && c != '}' && c != ']' && c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+				text.append((char) c);
+				c = read();
+			}
+			if (c != -1) {
+				position--;
+				offset--;
+			}
+			String literal = text.toString();
+			switch (literal) {
+			case "true":
+				return Boolean.TRUE;
+			case "false":
+				return Boolean.FALSE;
+			case "null":
+				return null;
+			default:
+				Object number = parseNumber(literal);
+				if (number == null) {
+					throw error("invalid value " + literal);
+				}
+				return number;
+			}
+		}
+
+		IOException error(String message) {
+			return new IOException("Offset " + offset + ": " + message);
+		}
+
+		private int read() throws IOException {
+			if (position == limit) {
+				limit = in.read(buffer, 0, buffer.length);
+				position = 0;
+				if (limit <= 0) {
+					limit = 0;
+					return -1;
+				}
+			}
+			offset++;
+			return buffer[position++];
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package com.experoinc.javatest;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Captures the {@link DynamicProperty} instances read while a calculated property
+ * evaluates its read function.
+ * <p>
+ * Every thread owns a stack of capture frames, so evaluations running on different
+ * threads never see each other's reads, and a calculated property created inside
+ * another one's read function gets a frame of its own. Frames are pooled per thread,
+ * so re-evaluating a property whose dependencies did not change allocates nothing.
+ * <p>
+ * A frame opened for a memoizing property also keeps the value of each
+ * dependency, exactly as its read function got it.
+ */
+final class DependencyTracker {
+
+	private static final ThreadLocal<DependencyTracker> CURRENT = ThreadLocal.withInitial(DependencyTracker::new);
+
+	private Frame[] frames = new Frame[4];
+	private int depth;
+
+	private DependencyTracker() {
+
+	}
+
+	/**
+	 * Opens a capture frame on the current thread. Must be paired with {@link #end(Frame)}.
+	 */
+	static Frame begin() {
+		return begin(false);
+	}
+
+	/**
+	 * @param recordValues whether the frame keeps the value read from each dependency
+	 */
+	static Frame begin(boolean recordValues) {
+		Frame frame = CURRENT.get().push();
+		frame.recordValues = recordValues;
+		return frame;
+	}
+
+	static void end(Frame frame) {
+		frame.owner.pop(frame);
+	}
+
+	/**
+	 * Records <code>property</code> as a dependency of the innermost evaluation
+	 * running on this thread, if any. Must be called before reading the value.
+	 * Only this thread's own frames are looked at, so reads on different threads
+	 * share no state.
+	 *
+	 * @return the frame, if it records values and this is the first read of
+	 *         <code>property</code>: the caller must then pass the value it reads to
+	 *         {@link Frame#recordValue(Object)}. Otherwise null.
+	 */
+	static Frame recordRead(AbstractDynamicProperty<?> property) {
+		if (Metrics.enabled) {
+			Metrics.read(property);
+		}
+		DependencyTracker tracker = CURRENT.get();
+		if (tracker.depth > 0) {
+			Frame frame = tracker.frames[tracker.depth - 1];
+			if (frame.add(property, property.version) && frame.recordValues) {
+				return frame;
+			}
+		}
+		return null;
+	}
+
+	private Frame push() {
+		if (depth == frames.length) {
+			frames = Arrays.copyOf(frames, depth * 2);
+		}
+		Frame frame = frames[depth];
+		if (frame == null) {
+			frame = frames[depth] = new Frame(this);
+		}
+		depth++;
+		return frame;
+	}
+
+	private void pop(Frame frame) {
+		if (depth == 0 || frames[depth - 1] != frame) {
+			throw new IllegalStateException("Dependency capture frames closed out of order");
+		}
+		frame.reset();
+		depth--;
+	}
+
+	/**
+	 * The distinct properties read by one evaluation, in first-read order.
+	 */
+	static final class Frame {
+
+		/** Above this many reads duplicates are detected with a hash lookup instead of a scan. */
+		private static final int LINEAR_SCAN_LIMIT = 8;
+
+		private final DependencyTracker owner;
+		private AbstractDynamicProperty<?>[] dependencies = new AbstractDynamicProperty<?>[LINEAR_SCAN_LIMIT];
+		/** Version of each dependency when it was first read. */
+		private long[] versions = new long[LINEAR_SCAN_LIMIT];
+		/** Value of each dependency when it was first read, if recorded. */
+		private Object[] values;
+		private boolean recordValues;
+		private int size;
+		private IdentityHashMap<AbstractDynamicProperty<?>, Integer> index;
+
+		private Frame(DependencyTracker owner) {
+			this.owner = owner;
+		}
+
+		int size() {
+			return size;
+		}
+
+		AbstractDynamicProperty<?> get(int i) {
+			return dependencies[i];
+		}
+
+		boolean contains(AbstractDynamicProperty<?> property) {
+			return indexOf(property) >= 0;
+		}
+
+		/**
+		 * @return the position of <code>property</code> in first-read order, or -1
+		 */
+		int indexOf(AbstractDynamicProperty<?> property) {
+			if (index != null) {
+				Integer i = index.get(property);
+				return i == null ? -1 : i;
+			}
+			for (int i = 0; i < size; i++) {
+				if (dependencies[i] == property) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * @return true if this frame read exactly <code>current</code>, in the same order
+		 */
+		boolean sameAs(AbstractDynamicProperty<?>[] current) {
+			if (current.length != size) {
+				return false;
+			}
+			for (int i = 0; i < size; i++) {
+				if (dependencies[i] != current[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return true if any dependency changed after this frame first read it
+		 */
+		boolean changedSinceRead() {
+			for (int i = 0; i < size; i++) {
+				if (dependencies[i].version != versions[i]) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		AbstractDynamicProperty<?>[] toArray() {
+			return Arrays.copyOf(dependencies, size);
+		}
+
+		/**
+		 * @return the recorded values, in first-read order
+		 */
+		Object[] valuesToArray() {
+			return Arrays.copyOf(values, size);
+		}
+
+		/**
+		 * Sets the value of the dependency just added by {@link DependencyTracker#recordRead}.
+		 */
+		void recordValue(Object value) {
+			values[size - 1] = value;
+		}
+
+		/**
+		 * Records a dependency read elsewhere, e.g. while checking a memoized result.
+		 *
+		 * @param version the version of <code>property</code> read before <code>value</code>
+		 */
+		void record(AbstractDynamicProperty<?> property, long version, Object value) {
+			if (add(property, version) && recordValues) {
+				recordValue(value);
+			}
+		}
+
+		/**
+		 * @return false if <code>property</code> was already recorded
+		 */
+		private boolean add(AbstractDynamicProperty<?> property, long version) {
+			if (size > 0 && dependencies[size - 1] == property) {
+				return false;
+			}
+			if (contains(property)) {
+				return false;
+			}
+			if (size == dependencies.length) {
+				dependencies = Arrays.copyOf(dependencies, size * 2);
+				versions = Arrays.copyOf(versions, size * 2);
+			}
+			if (recordValues && (values == null || values.length < dependencies.length)) {
+				values = values == null ? new Object[dependencies.length] : Arrays.copyOf(values, dependencies.length);
+			}
+			versions[size] = version;
+			dependencies[size] = property;
+			if (index != null) {
+				index.put(property, size);
+			} else if (size == LINEAR_SCAN_LIMIT) {
+				index = new IdentityHashMap<AbstractDynamicProperty<?>, Integer>();
+				for (int i = 0; i <= size; i++) {
+					index.put(dependencies[i], i);
+				}
+			}
+			size++;
+			return true;
+		}
+
+		private void reset() {
+			Arrays.fill(dependencies, 0, size, null);
+			if (values != null) {
+				Arrays.fill(values, 0, size, null);
+			}
+			size = 0;
+			index = null;
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package com.experoinc.javatest;
+
+import java.io.Closeable;
+
+/**
+ * A {@link DynamicProperty} holding a <code>double</code>. Reads, writes and
+ * notifications of DoubleObserver subscribers go through the primitive methods
+ * without boxing; the boxed ones remain for interoperability, e.g. with calculated
+ * properties reading it, and never accept <code>null</code>.
+ */
+public interface DoubleDynamicProperty extends DynamicProperty<Double> {
+
+  /**
+   * Gets the value without boxing it. Reading it inside a calculated property
+   * records a dependency just like {@link #getValue()}.
+   */
+  double getDouble();
+
+  /**
+   * Sets the value without boxing it. Observers are only notified if it differs
+   * from the current one (compared as by {@link Double#compare}, so NaN equals NaN and 0.0 differs from -0.0,
+   * unless the property was created with a tolerance).
+   */
+  void setDouble(double value);
+
+  /**
+   * Subscribes a primitive callback.
+   *
+   * @see DynamicProperty#subscribe(Observer)
+   */
+  Closeable subscribe(DoubleObserver callback);
+
+}
@@ -0,0 +1,90 @@
+package com.experoinc.javatest;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A plain {@link DoubleDynamicProperty}. The value lives in a primitive field; the
+ * inherited <code>property</code> field is unused.
+ */
+final class DoubleDynamicPropertyWrapper extends AbstractDynamicProperty<Double> implements DoubleDynamicProperty {
+
+	private volatile double value;
+
+	/** Largest difference still treated as no change; 0 compares as {@link Double#compare}. */
+	private final double tolerance;
+
+	DoubleDynamicPropertyWrapper(double initialValue, double tolerance) {
+		value = initialValue;
+		this.tolerance = tolerance;
+	}
+
+	@Override
+	public double getDouble() {
+		DependencyTracker.Frame memo = DependencyTracker.recordRead(this);
+		double current = value;
+		if (memo != null) {
+			memo.recordValue(Double.valueOf(current));
+		}
+		return current;
+	}
+
+	@Override
+	Object currentValue() {
+		return value;
+	}
+
+	@Override
+	public Double getValue() {
+		return getDouble();
+	}
+
+	/**
+	 * @see DynamicPropertyWrapper#setValue(Object)
+	 */
+	@Override
+	public void setDouble(double newValue) {
+		if (Metrics.enabled) {
+			Metrics.written(this);
+		}
+		PropagationScheduler scheduler = PropagationScheduler.beginWrite();
+		boolean changed = false;
+		try {
+			synchronized (this) {
+				if (!isSame(newValue)) {
+					value = newValue;
+					version = LogicalClock.tick();
+					changed = true;
+				}
+			}
+		} finally {
+			scheduler.endWrite(changed ? this : null);
+		}
+	}
+
+	private boolean isSame(double newValue) {
+		return tolerance == 0 ? Double.compare(value, newValue) == 0
+				: Equivalence.withinTolerance(value, newValue, tolerance);
+	}
+
+	@Override
+	public void setValue(Double newValue) {
+		setDouble(newValue);
+	}
+
+	@Override
+	public Closeable subscribe(DoubleObserver callback) {
+		return subscribe((Observer<Double>) callback);
+	}
+
+	@Override
+	void deliver(AtomicReferenceArray<CloseableProperty> subscriptions, long valueVersion) {
+		double current = value;
+		for (int i = 0; i < subscriptions.length(); i++) {
+			CloseableProperty subscription = subscriptions.get(i);
+			if (subscription != null) {
+				subscription.deliverDouble(current, valueVersion);
+			}
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package com.experoinc.javatest;
+
+/**
+ * Observes double values without boxing them.
+ * <p>
+ * Subscribed to a {@link DoubleDynamicProperty} and notified inline, it receives the
+ * primitive value; it still works as an <code>Observer&lt;Double&gt;</code> anywhere else.
+ */
+public interface DoubleObserver extends Observer<Double> {
+  void observe(double value);
+
+  @Override
+  default void observe(Double value) {
+    observe(value.doubleValue());
+  }
+}
@@ -0,0 +1,41 @@
+package com.experoinc.javatest;
+
+/**
+ * JMX view of the metrics of every property, registered as
+ * <code>com.experoinc.javatest:type=DynamicProperties</code> the first time metrics
+ * are enabled. Durations are in nanoseconds.
+ *
+ * @see DynamicPropertyFactory#setMetricsEnabled(boolean)
+ */
+public interface DynamicPropertiesMXBean {
+
+  boolean isEnabled();
+
+  void setEnabled(boolean enabled);
+
+  long getReads();
+
+  long getWrites();
+
+  long getEvaluations();
+
+  long getNotifications();
+
+  double getEvaluationMeanNanos();
+
+  long getEvaluationP99Nanos();
+
+  long getEvaluationMaxNanos();
+
+  double getObserverMeanNanos();
+
+  long getObserverP99Nanos();
+
+  long getObserverMaxNanos();
+
+  /**
+   * The registered properties that spent the most time evaluating, as
+   * <code>name: total ns in n evaluations</code>, slowest first.
+   */
+  String[] getSlowestEvaluations();
+}
@@ -17,6 +17,17 @@ public interface DynamicProperty<T> {
 
   void setValue(T value);
 
+  /**
+   * Gets the version of the value: 0 until the value first changes, then the
+   * {@link DynamicPropertyFactory#currentVersion() logical clock} tick of its
+   * latest change. It only ever grows, so comparing it with a version read earlier
+   * tells whether the value changed since, without comparing values or locking.
+   * <p>
+   * The version is updated right after the value, so a value read after the
+   * version is at least as recent as that version.
+   */
+  long getVersion();
+
   /**
    * Subscribes a callback to this dynamic property.
    * Anytime this dynamic property value is modified, <code>callback</code> should be called with the new value.
@@ -28,4 +39,13 @@ public interface DynamicProperty<T> {
    */
   Closeable subscribe(Observer<T> callback);
 
+  /**
+   * Subscribes a callback to this dynamic property, choosing how values reach it.
+   * <code>subscribe(callback)</code> is <code>subscribe(callback, NotificationMode.EVERY_VALUE)</code>.
+   *
+   * @param callback Method to be called whenever <code>Value</code> is modified
+   * @param mode     Whether <code>callback</code> needs every value or only the latest one
+   */
+  Closeable subscribe(Observer<T> callback, NotificationMode mode);
+
 }
@@ -1,15 +1,14 @@
 package com.experoinc.javatest;
 
-import java.io.Closeable;
-import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -19,15 +18,14 @@ import org.slf4j.LoggerFactory;
  */
 public class DynamicPropertyFactory<T> {
 
-	private static final Logger logger = LoggerFactory.getLogger(DynamicProperty.class);
-
 	private DynamicPropertyFactory() {
 
 	}
 
-    //@SuppressWarnings("unused")
-	//private static final ConcurrentHashMap<String, DynamicProperty> CREATED_PROPERTIES = new ConcurrentHashMap<String, DynamicProperty>();
-    
+	private static volatile Executor observerExecutor;
+
+	private static final PropertyRegistry REGISTRY = new PropertyRegistry();
+
 	/**
 	 * Creates an {@link DynamicProperty} instance with <code>initialValue</code>
 	 *
@@ -39,12 +37,83 @@ public class DynamicPropertyFactory<T> {
 	 * @return
 	 */
 	public static <T> DynamicProperty<T> create(T initialValue) {
+		return create(initialValue, Equivalence.<T>equality());
+	}
+
+	/**
+	 * Creates an {@link DynamicProperty} instance with <code>initialValue</code>
+	 * that ignores writes of a value equivalent to the current one.
+	 *
+	 * @param initialValue
+	 *            The initial value of the property
+	 * @param equivalence
+	 *            Decides whether a written value is a change, e.g.
+	 *            {@link Equivalence#identity()} for large immutable values
+	 * @param <T>
+	 *            The data type
+	 * @return
+	 */
+	public static <T> DynamicProperty<T> create(T initialValue, Equivalence<? super T> equivalence) {
 
-		DynamicProperty<T> dynamicProperty = new DynamicPropertyWrapper<T>(initialValue);
-		//CREATED_PROPERTIES.put(dynamicProperty.toString(), dynamicProperty);
+		DynamicProperty<T> dynamicProperty = new DynamicPropertyWrapper<T>(initialValue,
+				Objects.requireNonNull(equivalence, "equivalence"));
 		return dynamicProperty;
 	}
 
+	/**
+	 * Creates an {@link IntDynamicProperty} holding <code>initialValue</code>
+	 * unboxed.
+	 *
+	 * @param initialValue
+	 *            The initial value of the property
+	 * @return
+	 */
+	public static IntDynamicProperty createInt(int initialValue) {
+		return new IntDynamicPropertyWrapper(initialValue);
+	}
+
+	/**
+	 * Creates a {@link LongDynamicProperty} holding <code>initialValue</code>
+	 * unboxed.
+	 *
+	 * @param initialValue
+	 *            The initial value of the property
+	 * @return
+	 */
+	public static LongDynamicProperty createLong(long initialValue) {
+		return new LongDynamicPropertyWrapper(initialValue);
+	}
+
+	/**
+	 * Creates a {@link DoubleDynamicProperty} holding <code>initialValue</code>
+	 * unboxed.
+	 *
+	 * @param initialValue
+	 *            The initial value of the property
+	 * @return
+	 */
+	public static DoubleDynamicProperty createDouble(double initialValue) {
+		return new DoubleDynamicPropertyWrapper(initialValue, 0);
+	}
+
+	/**
+	 * Creates a {@link DoubleDynamicProperty} that ignores writes at most
+	 * <code>tolerance</code> away from its current value.
+	 *
+	 * @param initialValue
+	 *            The initial value of the property
+	 * @param tolerance
+	 *            The largest difference not treated as a change
+	 * @return
+	 * @see Equivalence#tolerance(double)
+	 */
+	public static DoubleDynamicProperty createDouble(double initialValue, double tolerance) {
+		if (!(tolerance >= 0)) {
+			throw new IllegalArgumentException("tolerance must be non-negative: " + tolerance);
+		}
+		return new DoubleDynamicPropertyWrapper(initialValue, tolerance);
+	}
+
 	/**
 	 * Creates a {@link DynamicProperty} instance whose <code>Value</code> property
 	 * is determined by running a function. We call this a
@@ -74,116 +143,399 @@ public class DynamicPropertyFactory<T> {
 	 * @return
 	 */
 	public static <T> DynamicProperty<T> create(Callable<T> read, Observer<T> write) {
+		return create(read, write, Equivalence.<T>equality());
+	}
+
+	/**
+	 * Creates a calculated {@link DynamicProperty} like
+	 * {@link #create(Callable, Observer)}, whose new results only count as a change,
+	 * notifying its observers and re-evaluating the calculated properties reading
+	 * it, if they are not equivalent to the current value.
+	 *
+	 * @param read
+	 *            Called to calculate the value of the property
+	 * @param write
+	 *            Called whenever the value of this property is set
+	 * @param equivalence
+	 *            Decides whether a new result is a change
+	 * @param <T>
+	 *            The data type
+	 * @return
+	 */
+	public static <T> DynamicProperty<T> create(Callable<T> read, Observer<T> write, Equivalence<? super T> equivalence) {
 
-		DynamicProperty<T> dynamicProperty = new DynamicPropertyWrapper<T>(write, read);
-		//CREATED_PROPERTIES.put(dynamicProperty.toString(), dynamicProperty);
+		DynamicProperty<T> dynamicProperty = new CalculatedDynamicProperty<T>(read, write,
+				Objects.requireNonNull(equivalence, "equivalence"), false, false, 0);
 		return dynamicProperty;
 	}
 
 	/**
-	 * Nested Class to wrap the DynamicProperty Implementation.
-	 * @author erasmodominguezjimenez
+	 * Creates a calculated {@link DynamicProperty} like
+	 * {@link #create(Callable, Observer)}, except that the properties it reads
+	 * only hold weak references to it.
+	 * <p>
+	 * Once the caller (and any calculated property reading it) drops the last
+	 * reference, it is garbage collected: it stops being re-evaluated and its
+	 * edges are removed from its dependencies before their next change wave.
+	 * Observers subscribed to it do not keep it alive.
+	 *
+	 * @param read
+	 *            Called to calculate the value of the property
+	 * @param write
+	 *            Called whenever the value of this property is set
 	 * @param <T>
+	 *            The data type
+	 * @return
 	 */
-private static final class DynamicPropertyWrapper<T> implements DynamicProperty<T> {
-	
-
-		private volatile T property;
-		
-		@SuppressWarnings("rawtypes")
-		private final Set<Closeable> callbacks = new CopyOnWriteArraySet<Closeable>();
-		
-		//Constructor
-		protected DynamicPropertyWrapper(Observer<T> write, Callable<T> read) {
-			try {
-				setProperty(write,read.call(),true);
-			} catch (Exception e) {
-				logger.error("Error in DynamicPropertyWrapper Constructor " + e.getMessage());
-				e.printStackTrace();
-			}
-		}
-        
-		//Constructor
-		protected DynamicPropertyWrapper(T initialValue) {
-			
-			setProperty(null ,initialValue, true);
-		}
-		/**
-		 * 
-		 * @param write
-		 * @param value
-		 * @param InitializeProperty Used to identify if the set Value was call from Create Method or if is an update - set property call.
-		 */
-		private  void setProperty(Observer<T> write, T value, boolean InitializeProperty) {
-		
-			if(InitializeProperty) {
-				property = value;
-				return;
-			}
-			
-			Closeable cls = subscribe(write);
-			boolean notifyChange = ((CloseableProperty)cls).notifyChange();
-			if(notifyChange) {
-			callbacks.add(cls);
-			if(!property.equals(value)) {
-			property = value;
-			notifyObservers();
-			}
-			}
+	public static <T> DynamicProperty<T> createWeak(Callable<T> read, Observer<T> write) {
+
+		CalculatedDynamicProperty.releaseCollectedEdges();
+		return new CalculatedDynamicProperty<T>(read, write, Equivalence.<T>equality(), true, false, 0);
+	}
+
+	/**
+	 * Creates a calculated {@link DynamicProperty} like
+	 * {@link #create(Callable, Observer)}, except that <code>read</code> is only
+	 * called when the value is needed.
+	 * <p>
+	 * It is not called during construction, and a change of a dependency only marks
+	 * the property stale while nothing subscribes to it: the next
+	 * {@link DynamicProperty#getValue()} calls <code>read</code> once, however many
+	 * changes happened since. Calculated properties reading it evaluate it when they
+	 * are re-evaluated themselves. With at least one subscriber it is re-evaluated on
+	 * every change, as its observers must be notified.
+	 *
+	 * @param read
+	 *            Called to calculate the value of the property
+	 * @param write
+	 *            Called whenever the value of this property is set
+	 * @param <T>
+	 *            The data type
+	 * @return
+	 */
+	public static <T> DynamicProperty<T> createLazy(Callable<T> read, Observer<T> write) {
+		return new CalculatedDynamicProperty<T>(read, write, Equivalence.<T>equality(), false, true, 0);
+	}
+
+	/**
+	 * Creates a calculated {@link DynamicProperty} like
+	 * {@link #create(Callable, Observer)} that remembers its last
+	 * <code>cacheSize</code> results together with the values of the dependencies
+	 * each was computed from.
+	 * <p>
+	 * When a dependency changes and every dependency read by a remembered result
+	 * holds a value equal to the one it held then, that result is reused and
+	 * <code>read</code> is not called. Use it for expensive read functions whose
+	 * inputs keep returning to the same few states; the cache is searched linearly,
+	 * so keep it small.
+	 *
+	 * @param read
+	 *            Called to calculate the value of the property
+	 * @param write
+	 *            Called whenever the value of this property is set
+	 * @param cacheSize
+	 *            How many results to remember, least recently used evicted first
+	 * @param <T>
+	 *            The data type
+	 * @return
+	 */
+	public static <T> DynamicProperty<T> createMemoized(Callable<T> read, Observer<T> write, int cacheSize) {
+		if (cacheSize < 1) {
+			throw new IllegalArgumentException("cacheSize must be positive: " + cacheSize);
 		}
+		return new CalculatedDynamicProperty<T>(read, write, Equivalence.<T>equality(), false, false, cacheSize);
+	}
+
+	/**
+	 * The process-wide registry of named properties. Properties are only in it
+	 * once registered, see {@link PropertyRegistry}.
+	 *
+	 * @return
+	 */
+	public static PropertyRegistry registry() {
+		return REGISTRY;
+	}
+
+	/**
+	 * Encodes the properties of {@link #registry()} into a compact binary image:
+	 * names, values, versions and the dependencies of calculated properties, as
+	 * they all were at one point in time, see {@link PropertyGraphImage}.
+	 *
+	 * @return a heap buffer holding the image, ready to be read
+	 */
+	public static ByteBuffer exportGraph() {
+		return exportGraph(REGISTRY);
+	}
+
+	/**
+	 * @see #exportGraph()
+	 */
+	public static ByteBuffer exportGraph(PropertyRegistry registry) {
+		return PropertyGraphCodec.export(registry);
+	}
+
+	/**
+	 * Reads an image made by {@link #exportGraph()}, possibly in another process,
+	 * and sets the properties of {@link #registry()} to its values in a single
+	 * batch, see {@link PropertyGraphImage#applyTo(PropertyRegistry)}.
+	 *
+	 * @return the image read
+	 * @throws IllegalArgumentException if the bytes are not a valid image
+	 */
+	public static PropertyGraphImage importGraph(ByteBuffer image) {
+		PropertyGraphImage read = PropertyGraphImage.read(image);
+		read.applyTo(REGISTRY);
+		return read;
+	}
+
+	/**
+	 * Reads the logical clock stamping every property change: the greatest
+	 * {@link DynamicProperty#getVersion()} of any property in this process. Any
+	 * property whose version is greater than a value returned earlier has changed
+	 * since.
+	 *
+	 * @return
+	 */
+	public static long currentVersion() {
+		return LogicalClock.now();
+	}
 
-		private void notifyObservers() {
-			callbacks.forEach(call -> {
-				try {
-					call.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			});	
+	/**
+	 * Reads the values of <code>properties</code> as they all were at one point in
+	 * time.
+	 * <p>
+	 * A batch of writes made with {@link #runInBatch(Runnable)}, or a single write,
+	 * is either entirely visible in the snapshot or not at all, together with the
+	 * re-evaluation of every calculated property depending on it. The snapshot is
+	 * retried while writes overlap it, without slowing writers down, but only a
+	 * bounded number of times: as a trade-off against waiting indefinitely under a
+	 * constant stream of writes, it then makes threads starting a write or a batch
+	 * wait, for as long as it takes the writes already in progress to finish and
+	 * the snapshot to be read. A thread holding a write section itself, e.g. in a
+	 * batch or a read function, never makes others wait, and keeps retrying.
+	 *
+	 * @param properties
+	 *            The properties to read
+	 * @return an immutable view of their values
+	 */
+	public static PropertySnapshot snapshot(DynamicProperty<?>... properties) {
+		DynamicProperty<?>[] copy = properties.clone();
+		Object[] values = new Object[copy.length];
+		SequenceLock.read(copy, values);
+		return new PropertySnapshot(copy, values);
+	}
+
+	/**
+	 * Runs <code>action</code> as one transaction for propagation purposes.
+	 * <p>
+	 * Every {@link DynamicProperty#setValue(Object)} made by <code>action</code> on this
+	 * thread takes effect immediately, but calculated properties are not
+	 * re-evaluated and observers are not notified until it returns. Then all the
+	 * changes are propagated in a single pass: each affected calculated property is
+	 * evaluated at most once, and a property written several times is notified
+	 * once, with its final value. Calculated properties read inside the batch still
+	 * have their values from before it. Batches may be nested.
+	 *
+	 * @param action
+	 *            The writes to make
+	 */
+	public static void runInBatch(Runnable action) {
+
+		PropagationScheduler.runInBatch(action);
+	}
+
+	/**
+	 * Sets how observers are notified. With <code>null</code> (the default) every
+	 * observer is called on the thread that changed the property, before the write
+	 * returns. With an executor, notifications are handed to it and the writer
+	 * returns immediately; each subscription still receives its values in order and
+	 * never concurrently. Only subscriptions made after this call are affected.
+	 *
+	 * @param executor
+	 *            Runs observer callbacks, or <code>null</code> to run them inline
+	 */
+	public static void setObserverExecutor(Executor executor) {
+
+		observerExecutor = executor;
+	}
+
+	static Executor observerExecutor() {
+		return observerExecutor;
+	}
+
+	/**
+	 * Creates an executor starting a virtual thread per task, for use with
+	 * {@link #setObserverExecutor(Executor)}. Virtual threads need Java 21 or later.
+	 *
+	 * @return
+	 * @throws UnsupportedOperationException
+	 *             if the running JVM has no virtual threads
+	 */
+	public static Executor newVirtualThreadExecutor() {
+
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (Executor) factory.invoke(null);
+		} catch (NoSuchMethodException e) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Could not create a virtual thread executor", e);
 		}
+	}
+
+	/**
+	 * Turns the counting of reads, writes, evaluations and notifications, and the
+	 * timing of evaluations and observers, on or off for every property. Off by
+	 * default: while off, the instrumented paths cost a single flag check. Turning
+	 * it on also registers {@link DynamicPropertiesMXBean} with the platform MBean
+	 * server. Counts are kept when metrics are turned off, and carry on when they
+	 * are turned back on.
+	 */
+	public static void setMetricsEnabled(boolean enabled) {
+
+		Metrics.setEnabled(enabled);
+	}
+
+	public static boolean metricsEnabled() {
 
-		@Override
-		public synchronized T getValue() {
-			return property;
+		return Metrics.enabled;
+	}
+
+	/**
+	 * @return the metrics of all properties together
+	 */
+	public static PropertyMetrics metrics() {
+
+		return Metrics.GLOBAL;
+	}
+
+	/**
+	 * @return the metrics of <code>property</code>, which must have been created by
+	 *         this factory
+	 */
+	public static PropertyMetrics metrics(DynamicProperty<?> property) {
+
+		if (!(property instanceof AbstractDynamicProperty)) {
+			throw new IllegalArgumentException("Not a property created by DynamicPropertyFactory");
 		}
+		return ((AbstractDynamicProperty<?>) property).stats();
+	}
+
+	/**
+	 * Turns the recording of change waves on or off. While on, every wave is
+	 * recorded as a tree of the properties it wrote, re-evaluated and notified, with
+	 * timings, and kept in a ring buffer of the latest waves, see
+	 * {@link #recentWaves()}. Off by default.
+	 */
+	public static void setTracingEnabled(boolean enabled) {
+
+		Tracing.enabled = enabled;
+	}
+
+	public static boolean tracingEnabled() {
 
-		@Override
-		public synchronized void setValue(T value) {
-             
-			setProperty(null, value,false);
+		return Tracing.enabled;
+	}
+
+	/**
+	 * @return the latest waves recorded while tracing was enabled, latest first
+	 */
+	public static List<PropagationTrace> recentWaves() {
+
+		return Tracing.recent();
+	}
+
+	/**
+	 * Empties the ring buffer of recorded waves.
+	 */
+	public static void clearRecentWaves() {
+
+		Tracing.clear();
+	}
+
+	/**
+	 * Logs a warning whenever the read function of a calculated property takes
+	 * longer than <code>budget</code>. The warning identifies the property by class
+	 * and identity hash code, as {@link Object#toString()} does; the nodes of
+	 * {@link #recentWaves()} hold the properties themselves. Works whether tracing
+	 * is enabled or not.
+	 *
+	 * @param budget
+	 *            The longest acceptable evaluation, or 0 to never warn
+	 */
+	public static void setSlowEvaluationBudget(long budget, TimeUnit unit) {
+
+		if (budget < 0) {
+			throw new IllegalArgumentException("budget must not be negative: " + budget);
 		}
+		Tracing.slowEvaluationNanos = unit.toNanos(budget);
+	}
+
+	/**
+	 * Sets how many times a calculated property may be evaluated in one change
+	 * wave. A read function that changes its own dependencies is evaluated again
+	 * after each such change; one that always does would otherwise loop forever.
+	 * Exceeding the budget fails the write that started the wave with an
+	 * {@link IllegalStateException} naming the property.
+	 *
+	 * @param evaluations
+	 *            At least 1; 100 by default
+	 */
+	public static void setEvaluationBudget(int evaluations) {
 
-		@Override
-		public Closeable subscribe(Observer<T> callback) {
-			Closeable cls = new CloseableProperty(callback);
-			return cls;
+		if (evaluations < 1) {
+			throw new IllegalArgumentException("evaluations must be positive: " + evaluations);
 		}
+		CalculatedDynamicProperty.evaluationBudget = evaluations;
+	}
 
-		private  final class CloseableProperty implements Closeable {
-			Observer<T> observer;
-			boolean notifyChange = true;
-			public CloseableProperty(Observer<T> write) {
-				if(write!=null) {
-				observer = write;
-				}else {
-					observer = new Observer<T>() {
-						@Override
-						public void observe(T value) {
-						}
-					};
-					notifyChange = false;
-				}
-			}
-			@Override
-			public void close() throws IOException {
-				synchronized (observer) {
-					observer.notifyAll();
-				}
-			
+	/**
+	 * Evaluates levels of at least <code>threshold</code> calculated properties
+	 * in parallel on the common {@link ForkJoinPool}, see
+	 * {@link #setParallelPropagation(Executor, int, int)}.
+	 *
+	 * @param threshold
+	 *            At least 2
+	 */
+	public static void setParallelPropagation(int threshold) {
+
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		setParallelPropagation(pool, pool.getParallelism(), threshold);
+	}
+
+	/**
+	 * Evaluates the calculated properties a change wave reaches in parallel when
+	 * there are enough of them at the same height in the dependency graph, such
+	 * as the dependents of a base property with a large fan-out. The wave's thread
+	 * evaluates a level of at least <code>threshold</code> properties with up to
+	 * <code>parallelism</code> tasks on <code>executor</code> and waits for all of
+	 * them before going on to the next level, so no property is evaluated twice at
+	 * once and observers still see a consistent graph. Smaller levels, and all
+	 * levels while the executor rejects the tasks, are evaluated on the wave's
+	 * thread.
+	 * <p>
+	 * Read functions then run on the executor's threads, where a write they make
+	 * starts a wave of its own instead of joining the running one.
+	 *
+	 * @param executor
+	 *            Runs the helper tasks, or null to evaluate sequentially, the
+	 *            default
+	 * @param parallelism
+	 *            Helper tasks per level, at most; usually the number of threads of
+	 *            <code>executor</code>
+	 * @param threshold
+	 *            At least 2
+	 */
+	public static void setParallelPropagation(Executor executor, int parallelism, int threshold) {
+
+		if (executor != null) {
+			if (parallelism < 1) {
+				throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
 			}
-			public boolean notifyChange() {
-				return notifyChange;
+			if (threshold < 2) {
+				throw new IllegalArgumentException("threshold must be at least 2: " + threshold);
 			}
 		}
+		PropagationScheduler.configureParallelism(executor, parallelism, threshold);
 	}
 }
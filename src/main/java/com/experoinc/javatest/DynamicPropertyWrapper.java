@@ -0,0 +1,43 @@
+package com.experoinc.javatest;
+
+/**
+ * A plain {@link DynamicProperty} holding a value set by its callers.
+ *
+ * @author erasmodominguezjimenez
+ * @param <T>
+ */
+final class DynamicPropertyWrapper<T> extends AbstractDynamicProperty<T> {
+
+	private final Equivalence<? super T> equivalence;
+
+	//Constructor
+	DynamicPropertyWrapper(T initialValue, Equivalence<? super T> equivalence) {
+		this.equivalence = equivalence;
+		property = initialValue;
+	}
+
+	/**
+	 * Assignments are serialized on the wrapper so versions follow write order.
+	 * Propagation runs outside the monitor: a slow calculated property never
+	 * blocks other writers. A value equivalent to the current one is dropped.
+	 */
+	@Override
+	public void setValue(T value) {
+		if (Metrics.enabled) {
+			Metrics.written(this);
+		}
+		PropagationScheduler scheduler = PropagationScheduler.beginWrite();
+		boolean changed = false;
+		try {
+			synchronized (this) {
+				if (!equivalence.equivalent(property, value)) {
+					property = value;
+					version = LogicalClock.tick();
+					changed = true;
+				}
+			}
+		} finally {
+			scheduler.endWrite(changed ? this : null);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.experoinc.javatest;
+
+import java.util.Comparator;
+import java.util.Objects;
+
+/**
+ * Decides whether a new value of a property is a change worth propagating.
+ * <p>
+ * A value equivalent to the current one is dropped: the property keeps its
+ * current value, observers are not notified and calculated properties reading it
+ * are not re-evaluated. Implementations must accept <code>null</code>.
+ *
+ * @param <T>
+ */
+public interface Equivalence<T> {
+
+  boolean equivalent(T current, T value);
+
+  /**
+   * Null-safe {@link Object#equals(Object)}. The default for every property.
+   */
+  static <T> Equivalence<T> equality() {
+    return Objects::equals;
+  }
+
+  /**
+   * Only the same instance is equivalent. Constant time, for large immutable values
+   * that are replaced rather than rebuilt equal.
+   */
+  static <T> Equivalence<T> identity() {
+    return (current, value) -> current == value;
+  }
+
+  /**
+   * Values the comparator orders as equal are equivalent; <code>null</code> is
+   * only equivalent to <code>null</code>.
+   */
+  static <T> Equivalence<T> comparing(Comparator<? super T> comparator) {
+    Objects.requireNonNull(comparator, "comparator");
+    return (current, value) -> current == null || value == null
+        ? current == value
+        : comparator.compare(current, value) == 0;
+  }
+
+  /**
+   * Numbers at most <code>epsilon</code> apart are equivalent, as are two NaNs.
+   * Changes are measured from the value last accepted, so a series of small steps
+   * is propagated once they add up to more than <code>epsilon</code>.
+   */
+  static <T extends Number> Equivalence<T> tolerance(double epsilon) {
+    if (!(epsilon >= 0)) {
+      throw new IllegalArgumentException("epsilon must be non-negative: " + epsilon);
+    }
+    return (current, value) -> current == null || value == null
+        ? current == value
+        : withinTolerance(current.doubleValue(), value.doubleValue(), epsilon);
+  }
+
+  /**
+   * @see #tolerance(double)
+   */
+  static boolean withinTolerance(double current, double value, double epsilon) {
+    return Double.compare(current, value) == 0 || Math.abs(current - value) <= epsilon;
+  }
+}
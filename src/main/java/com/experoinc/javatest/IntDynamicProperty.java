@@ -0,0 +1,32 @@
+package com.experoinc.javatest;
+
+import java.io.Closeable;
+
+/**
+ * A {@link DynamicProperty} holding an <code>int</code>. Reads, writes and
+ * notifications of IntObserver subscribers go through the primitive methods
+ * without boxing; the boxed ones remain for interoperability, e.g. with calculated
+ * properties reading it, and never accept <code>null</code>.
+ */
+public interface IntDynamicProperty extends DynamicProperty<Integer> {
+
+  /**
+   * Gets the value without boxing it. Reading it inside a calculated property
+   * records a dependency just like {@link #getValue()}.
+   */
+  int getInt();
+
+  /**
+   * Sets the value without boxing it. Observers are only notified if it differs
+   * from the current one.
+   */
+  void setInt(int value);
+
+  /**
+   * Subscribes a primitive callback.
+   *
+   * @see DynamicProperty#subscribe(Observer)
+   */
+  Closeable subscribe(IntObserver callback);
+
+}
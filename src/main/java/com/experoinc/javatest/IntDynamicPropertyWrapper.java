@@ -0,0 +1,81 @@
+package com.experoinc.javatest;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A plain {@link IntDynamicProperty}. The value lives in a primitive field; the
+ * inherited <code>property</code> field is unused.
+ */
+final class IntDynamicPropertyWrapper extends AbstractDynamicProperty<Integer> implements IntDynamicProperty {
+
+	private volatile int value;
+
+	IntDynamicPropertyWrapper(int initialValue) {
+		value = initialValue;
+	}
+
+	@Override
+	public int getInt() {
+		DependencyTracker.Frame memo = DependencyTracker.recordRead(this);
+		int current = value;
+		if (memo != null) {
+			memo.recordValue(Integer.valueOf(current));
+		}
+		return current;
+	}
+
+	@Override
+	Object currentValue() {
+		return value;
+	}
+
+	@Override
+	public Integer getValue() {
+		return getInt();
+	}
+
+	/**
+	 * @see DynamicPropertyWrapper#setValue(Object)
+	 */
+	@Override
+	public void setInt(int newValue) {
+		if (Metrics.enabled) {
+			Metrics.written(this);
+		}
+		PropagationScheduler scheduler = PropagationScheduler.beginWrite();
+		boolean changed = false;
+		try {
+			synchronized (this) {
+				if (value != newValue) {
+					value = newValue;
+					version = LogicalClock.tick();
+					changed = true;
+				}
+			}
+		} finally {
+			scheduler.endWrite(changed ? this : null);
+		}
+	}
+
+	@Override
+	public void setValue(Integer newValue) {
+		setInt(newValue);
+	}
+
+	@Override
+	public Closeable subscribe(IntObserver callback) {
+		return subscribe((Observer<Integer>) callback);
+	}
+
+	@Override
+	void deliver(AtomicReferenceArray<CloseableProperty> subscriptions, long valueVersion) {
+		int current = value;
+		for (int i = 0; i < subscriptions.length(); i++) {
+			CloseableProperty subscription = subscriptions.get(i);
+			if (subscription != null) {
+				subscription.deliverInt(current, valueVersion);
+			}
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package com.experoinc.javatest;
+
+/**
+ * Observes int values without boxing them.
+ * <p>
+ * Subscribed to a {@link IntDynamicProperty} and notified inline, it receives the
+ * primitive value; it still works as an <code>Observer&lt;Integer&gt;</code> anywhere else.
+ */
+public interface IntObserver extends Observer<Integer> {
+  void observe(int value);
+
+  @Override
+  default void observe(Integer value) {
+    observe(value.intValue());
+  }
+}
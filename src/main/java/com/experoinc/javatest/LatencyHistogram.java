@@ -0,0 +1,203 @@
+package com.experoinc.javatest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of durations in nanoseconds, in the style of an HDR
+ * histogram: each power of two is split into four buckets, so a percentile is
+ * reported with at most 25% error over the whole range of a <code>long</code>.
+ * <p>
+ * Recording is lock-free. Like a {@link LongAdder}, the histogram starts with a
+ * single set of 2 KB of buckets and, the first time two threads collide on it,
+ * spreads recording threads over up to one set per processor, allocated as they
+ * are first used; reading merges them.
+ */
+public final class LatencyHistogram {
+
+	/** log2 of the buckets per power of two. */
+	private static final int SUB_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/** Stripes once threads contend, a power of two at least the number of processors. */
+	private static final int STRIPES = stripes();
+
+	private final Stripe base = new Stripe();
+	/** Null until two threads collided on {@link #base}. */
+	private volatile AtomicReferenceArray<Stripe> stripes;
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+
+	LatencyHistogram() {
+
+	}
+
+	/**
+	 * The buckets and maximum recorded by some of the threads.
+	 */
+	private static final class Stripe {
+
+		final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+		final AtomicLong max = new AtomicLong();
+
+		void record(int bucket, long nanos) {
+			buckets.incrementAndGet(bucket);
+			raiseMax(nanos);
+		}
+
+		void raiseMax(long nanos) {
+			long current;
+			while (nanos > (current = max.get())) {
+				if (max.compareAndSet(current, nanos)) {
+					break;
+				}
+			}
+		}
+	}
+
+	void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		int bucket = bucket(nanos);
+		AtomicReferenceArray<Stripe> striped = stripes;
+		if (striped == null) {
+			long n = base.buckets.get(bucket);
+			if (base.buckets.compareAndSet(bucket, n, n + 1)) {
+				base.raiseMax(nanos);
+			} else {
+				striped = inflate();
+			}
+		}
+		if (striped != null) {
+			stripe(striped).record(bucket, nanos);
+		}
+		count.increment();
+		total.add(nanos);
+	}
+
+	private synchronized AtomicReferenceArray<Stripe> inflate() {
+		if (stripes == null) {
+			stripes = new AtomicReferenceArray<Stripe>(STRIPES);
+		}
+		return stripes;
+	}
+
+	private static Stripe stripe(AtomicReferenceArray<Stripe> striped) {
+		long id = Thread.currentThread().getId();
+		int index = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (STRIPES - 1);
+		Stripe stripe = striped.get(index);
+		if (stripe == null) {
+			striped.compareAndSet(index, null, new Stripe());
+			stripe = striped.get(index);
+		}
+		return stripe;
+	}
+
+	private static int stripes() {
+		int n = 1;
+		while (n < Runtime.getRuntime().availableProcessors()) {
+			n <<= 1;
+		}
+		return n;
+	}
+
+	/**
+	 * @return the number of durations recorded
+	 */
+	public long count() {
+		return count.sum();
+	}
+
+	public long totalNanos() {
+		return total.sum();
+	}
+
+	public long maxNanos() {
+		long max = base.max.get();
+		AtomicReferenceArray<Stripe> striped = stripes;
+		if (striped != null) {
+			for (int i = 0; i < striped.length(); i++) {
+				Stripe stripe = striped.get(i);
+				if (stripe != null) {
+					max = Math.max(max, stripe.max.get());
+				}
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * @return the mean duration, or 0 if none was recorded
+	 */
+	public double meanNanos() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) total.sum() / n;
+	}
+
+	/**
+	 * Estimates a percentile of the durations recorded: the upper bound of the
+	 * bucket holding it, never more than the maximum.
+	 *
+	 * @param percentile
+	 *            Between 0 and 100, e.g. 99.9
+	 * @return the estimate, or 0 if no duration was recorded
+	 */
+	public long percentileNanos(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+		}
+		long[] merged = new long[base.buckets.length()];
+		add(base, merged);
+		AtomicReferenceArray<Stripe> striped = stripes;
+		if (striped != null) {
+			for (int i = 0; i < striped.length(); i++) {
+				Stripe stripe = striped.get(i);
+				if (stripe != null) {
+					add(stripe, merged);
+				}
+			}
+		}
+		long n = 0;
+		for (long bucketCount : merged) {
+			n += bucketCount;
+		}
+		long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < merged.length; i++) {
+			seen += merged[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), maxNanos());
+			}
+		}
+		return 0;
+	}
+
+	private static void add(Stripe stripe, long[] merged) {
+		for (int i = 0; i < merged.length; i++) {
+			merged[i] += stripe.buckets.get(i);
+		}
+	}
+
+	private static int bucket(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return exponent * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS;
+		int sub = bucket % SUB_BUCKETS;
+		long end = (long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS);
+		// the last bucket of the top power of two ends past Long.MAX_VALUE
+		return end <= 0 ? Long.MAX_VALUE : end - 1;
+	}
+}
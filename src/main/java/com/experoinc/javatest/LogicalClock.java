@@ -0,0 +1,46 @@
+package com.experoinc.javatest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide logical clock stamping every change of every property.
+ * <p>
+ * Each change takes the next tick as the new version of the property, so versions
+ * grow with every change of one property and are also ordered across properties:
+ * a property whose version is greater than a tick read earlier has changed since.
+ */
+final class LogicalClock {
+
+	private static final AtomicLong CLOCK = new AtomicLong();
+
+	private LogicalClock() {
+
+	}
+
+	/**
+	 * @return a new stamp, greater than every stamp handed out before
+	 */
+	static long tick() {
+		return CLOCK.incrementAndGet();
+	}
+
+	/**
+	 * @return the latest stamp handed out
+	 */
+	static long now() {
+		return CLOCK.get();
+	}
+
+	/**
+	 * Moves the clock forward to at least <code>stamp</code>, so that the stamps
+	 * handed out from now on are greater than it.
+	 */
+	static void advanceTo(long stamp) {
+		long now;
+		while ((now = CLOCK.get()) < stamp) {
+			if (CLOCK.compareAndSet(now, stamp)) {
+				return;
+			}
+		}
+	}
+}
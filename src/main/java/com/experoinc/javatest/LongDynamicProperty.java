@@ -0,0 +1,32 @@
+package com.experoinc.javatest;
+
+import java.io.Closeable;
+
+/**
+ * A {@link DynamicProperty} holding a <code>long</code>. Reads, writes and
+ * notifications of LongObserver subscribers go through the primitive methods
+ * without boxing; the boxed ones remain for interoperability, e.g. with calculated
+ * properties reading it, and never accept <code>null</code>.
+ */
+public interface LongDynamicProperty extends DynamicProperty<Long> {
+
+  /**
+   * Gets the value without boxing it. Reading it inside a calculated property
+   * records a dependency just like {@link #getValue()}.
+   */
+  long getLong();
+
+  /**
+   * Sets the value without boxing it. Observers are only notified if it differs
+   * from the current one.
+   */
+  void setLong(long value);
+
+  /**
+   * Subscribes a primitive callback.
+   *
+   * @see DynamicProperty#subscribe(Observer)
+   */
+  Closeable subscribe(LongObserver callback);
+
+}
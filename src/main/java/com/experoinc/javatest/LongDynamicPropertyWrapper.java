@@ -0,0 +1,81 @@
+package com.experoinc.javatest;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A plain {@link LongDynamicProperty}. The value lives in a primitive field; the
+ * inherited <code>property</code> field is unused.
+ */
+final class LongDynamicPropertyWrapper extends AbstractDynamicProperty<Long> implements LongDynamicProperty {
+
+	private volatile long value;
+
+	LongDynamicPropertyWrapper(long initialValue) {
+		value = initialValue;
+	}
+
+	@Override
+	public long getLong() {
+		DependencyTracker.Frame memo = DependencyTracker.recordRead(this);
+		long current = value;
+		if (memo != null) {
+			memo.recordValue(Long.valueOf(current));
+		}
+		return current;
+	}
+
+	@Override
+	Object currentValue() {
+		return value;
+	}
+
+	@Override
+	public Long getValue() {
+		return getLong();
+	}
+
+	/**
+	 * @see DynamicPropertyWrapper#setValue(Object)
+	 */
+	@Override
+	public void setLong(long newValue) {
+		if (Metrics.enabled) {
+			Metrics.written(this);
+		}
+		PropagationScheduler scheduler = PropagationScheduler.beginWrite();
+		boolean changed = false;
+		try {
+			synchronized (this) {
+				if (value != newValue) {
+					value = newValue;
+					version = LogicalClock.tick();
+					changed = true;
+				}
+			}
+		} finally {
+			scheduler.endWrite(changed ? this : null);
+		}
+	}
+
+	@Override
+	public void setValue(Long newValue) {
+		setLong(newValue);
+	}
+
+	@Override
+	public Closeable subscribe(LongObserver callback) {
+		return subscribe((Observer<Long>) callback);
+	}
+
+	@Override
+	void deliver(AtomicReferenceArray<CloseableProperty> subscriptions, long valueVersion) {
+		long current = value;
+		for (int i = 0; i < subscriptions.length(); i++) {
+			CloseableProperty subscription = subscriptions.get(i);
+			if (subscription != null) {
+				subscription.deliverLong(current, valueVersion);
+			}
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package com.experoinc.javatest;
+
+/**
+ * Observes long values without boxing them.
+ * <p>
+ * Subscribed to a {@link LongDynamicProperty} and notified inline, it receives the
+ * primitive value; it still works as an <code>Observer&lt;Long&gt;</code> anywhere else.
+ */
+public interface LongObserver extends Observer<Long> {
+  void observe(long value);
+
+  @Override
+  default void observe(Long value) {
+    observe(value.longValue());
+  }
+}
@@ -0,0 +1,104 @@
+package com.experoinc.javatest;
+
+import java.util.Objects;
+
+/**
+ * Results of past evaluations of one calculated property, keyed on the values of
+ * the dependencies each evaluation read.
+ * <p>
+ * A result is reused when every dependency it was computed from currently holds
+ * an equal value, even if it changed in between: a dependency flipping back and
+ * forth between a few states only runs the read function the first time each
+ * state is seen. Entries are kept most recently used first and the least recently
+ * used one is evicted when the cache is full. Lookups scan the entries, so the
+ * cache is meant to be small.
+ * <p>
+ * Only accessed by the thread evaluating the property, see
+ * {@link CalculatedDynamicProperty}. Entries reference their dependencies
+ * strongly until evicted.
+ *
+ * @param <T>
+ */
+final class MemoCache<T> {
+
+	static final class Entry<T> {
+		final AbstractDynamicProperty<?>[] dependencies;
+		final Object[] values;
+		final T result;
+
+		Entry(AbstractDynamicProperty<?>[] dependencies, Object[] values, T result) {
+			this.dependencies = dependencies;
+			this.values = values;
+			this.result = result;
+		}
+	}
+
+	private final Entry<T>[] entries;
+	private int size;
+
+	/** Versions read while checking an entry, before the values. */
+	private long[] versions = new long[8];
+
+	MemoCache(int capacity) {
+		entries = newEntries(capacity);
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static <T> Entry<T>[] newEntries(int capacity) {
+		return new Entry[capacity];
+	}
+
+	/**
+	 * Looks for a result computed from the current values of its dependencies. On
+	 * a hit the dependencies are recorded in <code>frame</code> as if the read
+	 * function had read them, with the versions read before comparing the values,
+	 * so a change racing with the lookup is detected like one racing with an
+	 * evaluation.
+	 *
+	 * @return the matching entry, or null if the read function must be called
+	 */
+	Entry<T> lookup(DependencyTracker.Frame frame) {
+		for (int i = 0; i < size; i++) {
+			Entry<T> entry = entries[i];
+			if (matches(entry)) {
+				for (int j = 0; j < entry.dependencies.length; j++) {
+					frame.record(entry.dependencies[j], versions[j], entry.values[j]);
+				}
+				System.arraycopy(entries, 0, entries, 1, i);
+				entries[0] = entry;
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Remembers the result of an evaluation that read <code>dependencies</code>,
+	 * whose values were recorded by <code>frame</code>. The caller must make sure
+	 * no dependency changed during the evaluation.
+	 */
+	void store(AbstractDynamicProperty<?>[] dependencies, DependencyTracker.Frame frame, T result) {
+		int last = Math.min(size, entries.length - 1);
+		System.arraycopy(entries, 0, entries, 1, last);
+		entries[0] = new Entry<T>(dependencies, frame.valuesToArray(), result);
+		if (size < entries.length) {
+			size++;
+		}
+	}
+
+	private boolean matches(Entry<T> entry) {
+		AbstractDynamicProperty<?>[] dependencies = entry.dependencies;
+		if (versions.length < dependencies.length) {
+			versions = new long[dependencies.length];
+		}
+		for (int i = 0; i < dependencies.length; i++) {
+			AbstractDynamicProperty<?> dependency = dependencies[i];
+			dependency.bringUpToDate();
+			versions[i] = dependency.version;
+			if (!Objects.equals(dependency.currentValue(), entry.values[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,166 @@
+package com.experoinc.javatest;
+
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instrumentation of the hot paths: reads, writes, evaluations and observer
+ * callbacks, counted per property and for all of them.
+ * <p>
+ * Disabled by default. Every instrumented path first checks {@link #enabled}, so
+ * while metrics are off the only cost is that one check: nothing is counted, timed
+ * or allocated. The counters of a property are allocated the first time it is
+ * used while metrics are on.
+ */
+final class Metrics {
+
+	private static final Logger logger = LoggerFactory.getLogger(DynamicProperty.class);
+
+	static final String OBJECT_NAME = "com.experoinc.javatest:type=DynamicProperties";
+
+	/** Registered properties listed by the MBean. */
+	private static final int SLOWEST = 10;
+
+	static volatile boolean enabled;
+
+	static final PropertyStats GLOBAL = new PropertyStats();
+
+	private static boolean registered;
+
+	private Metrics() {
+
+	}
+
+	static synchronized void setEnabled(boolean on) {
+		enabled = on;
+		if (on && !registered) {
+			registered = true;
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), new ObjectName(OBJECT_NAME));
+			} catch (JMException | RuntimeException e) {
+				logger.error("Failed to register the metrics MBean " + e.getMessage(), e);
+			}
+		}
+	}
+
+	static void read(AbstractDynamicProperty<?> property) {
+		property.stats().reads.increment();
+		GLOBAL.reads.increment();
+	}
+
+	static void written(AbstractDynamicProperty<?> property) {
+		property.stats().writes.increment();
+		GLOBAL.writes.increment();
+	}
+
+	static void evaluated(AbstractDynamicProperty<?> property, long elapsed) {
+		property.stats().evaluationTime.record(elapsed);
+		GLOBAL.evaluationTime.record(elapsed);
+	}
+
+	static void observed(AbstractDynamicProperty<?> property, long startNanos) {
+		long elapsed = System.nanoTime() - startNanos;
+		property.stats().observerTime.record(elapsed);
+		GLOBAL.observerTime.record(elapsed);
+	}
+
+	private static final class MBean implements DynamicPropertiesMXBean {
+
+		@Override
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		@Override
+		public void setEnabled(boolean enabled) {
+			Metrics.setEnabled(enabled);
+		}
+
+		@Override
+		public long getReads() {
+			return GLOBAL.reads();
+		}
+
+		@Override
+		public long getWrites() {
+			return GLOBAL.writes();
+		}
+
+		@Override
+		public long getEvaluations() {
+			return GLOBAL.evaluations();
+		}
+
+		@Override
+		public long getNotifications() {
+			return GLOBAL.notifications();
+		}
+
+		@Override
+		public double getEvaluationMeanNanos() {
+			return GLOBAL.evaluationTime.meanNanos();
+		}
+
+		@Override
+		public long getEvaluationP99Nanos() {
+			return GLOBAL.evaluationTime.percentileNanos(99);
+		}
+
+		@Override
+		public long getEvaluationMaxNanos() {
+			return GLOBAL.evaluationTime.maxNanos();
+		}
+
+		@Override
+		public double getObserverMeanNanos() {
+			return GLOBAL.observerTime.meanNanos();
+		}
+
+		@Override
+		public long getObserverP99Nanos() {
+			return GLOBAL.observerTime.percentileNanos(99);
+		}
+
+		@Override
+		public long getObserverMaxNanos() {
+			return GLOBAL.observerTime.maxNanos();
+		}
+
+		@Override
+		public String[] getSlowestEvaluations() {
+			// total and count of each, read once so the sort sees stable values
+			ArrayList<Map.Entry<String, long[]>> timed = new ArrayList<Map.Entry<String, long[]>>();
+			for (Map.Entry<String, DynamicProperty<?>> entry : DynamicPropertyFactory.registry().all().entrySet()) {
+				if (entry.getValue() instanceof AbstractDynamicProperty) {
+					PropertyStats stats = ((AbstractDynamicProperty<?>) entry.getValue()).existingStats();
+					if (stats != null && stats.evaluations() > 0) {
+						timed.add(new AbstractMap.SimpleImmutableEntry<String, long[]>(entry.getKey(),
+								new long[] { stats.evaluationTime.totalNanos(), stats.evaluationTime.count() }));
+					}
+				}
+			}
+			Collections.sort(timed, new Comparator<Map.Entry<String, long[]>>() {
+				@Override
+				public int compare(Map.Entry<String, long[]> a, Map.Entry<String, long[]> b) {
+					return Long.compare(b.getValue()[0], a.getValue()[0]);
+				}
+			});
+			String[] slowest = new String[Math.min(SLOWEST, timed.size())];
+			for (int i = 0; i < slowest.length; i++) {
+				long[] time = timed.get(i).getValue();
+				slowest[i] = timed.get(i).getKey() + ": " + time[0] + " ns in " + time[1] + " evaluations";
+			}
+			return slowest;
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package com.experoinc.javatest;
+
+/**
+ * How a subscription receives the values of a {@link DynamicProperty}.
+ */
+public enum NotificationMode {
+
+  /**
+   * Every change is delivered, in order.
+   */
+  EVERY_VALUE,
+
+  /**
+   * Only the most recent value is delivered: a value still waiting for the observer
+   * is replaced by a newer one. Each subscription holds at most one pending value,
+   * however fast the property changes. Values are still delivered in order.
+   * <p>
+   * Values only wait when notifications are dispatched on an executor (see
+   * {@link DynamicPropertyFactory#setObserverExecutor(java.util.concurrent.Executor)});
+   * inline delivery hands over each value before the write returns.
+   */
+  LATEST_VALUE
+}
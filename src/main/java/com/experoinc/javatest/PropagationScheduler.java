@@ -0,0 +1,502 @@
+package com.experoinc.javatest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Runs one change wave per outermost write on a thread.
+ * <p>
+ * A write marks the dependents of the changed property dirty and queues them by
+ * height (a plain property has height 0, a calculated property is one higher than
+ * its highest dependency). Queued properties are evaluated lowest height first, so
+ * by the time a calculated property is evaluated every dependency that is going to
+ * change in this wave already has. Each calculated property is queued at most once
+ * per wave, however many paths lead to it. Observers are notified after the
+ * evaluations they depend on, so they never see a half-propagated graph.
+ * <p>
+ * Writes made while a wave is running on the same thread (from a read function, a
+ * write function or an observer) join that wave instead of starting a nested one.
+ * Writes made inside {@link #runInBatch(Runnable)} are all collected into one wave
+ * that only runs when the outermost batch ends.
+ * <p>
+ * From just before the first write until the last evaluation of its wave, the
+ * thread holds a {@link SequenceLock} write section, so snapshot readers never see
+ * a batch or a wave half applied. Observers are notified after the section closes.
+ * <p>
+ * With parallel propagation configured, a level of at least
+ * {@link #parallelThreshold} queued properties of the same height is evaluated
+ * concurrently: none of them can depend on another, since a dependency is always
+ * lower. The wave's thread hands the level to helper tasks on the configured
+ * executor, evaluates alongside them and waits for the whole level before going
+ * on, so evaluations stay in height order and each property is still evaluated
+ * by one thread at a time. Helpers that never get to run only leave more work
+ * to the wave's thread.
+ */
+final class PropagationScheduler {
+
+	private static final ThreadLocal<PropagationScheduler> CURRENT = ThreadLocal.withInitial(PropagationScheduler::new);
+
+	/** Source of wave ids, unique across threads. */
+	private static final AtomicLong WAVES = new AtomicLong();
+
+	/** Runs helper tasks of parallel levels, or null to always evaluate on the wave's thread. */
+	private static volatile Executor parallelExecutor;
+	/** Helper tasks submitted per parallel level, at most. */
+	private static volatile int parallelism;
+	/** Smallest level evaluated in parallel. */
+	private static volatile int parallelThreshold = Integer.MAX_VALUE;
+
+	/** Binary min-heap of queued properties, keyed by their height when queued. */
+	private CalculatedDynamicProperty<?>[] queue = new CalculatedDynamicProperty<?>[16];
+	private int[] ranks = new int[16];
+	private int size;
+
+	/** Properties whose value changed in this wave, in the order they changed. */
+	private final ArrayList<AbstractDynamicProperty<?>> changed = new ArrayList<AbstractDynamicProperty<?>>();
+	private int notified;
+
+	/** Id of the wave being collected or run; 0 when idle. */
+	private long wave;
+	private boolean running;
+	private int batchDepth;
+	/** Whether this thread holds a {@link SequenceLock} write section. */
+	private boolean writing;
+	/** This thread's write sections, once it wrote. */
+	private SequenceLock.Section section;
+	/** Record of the running wave, or null unless {@link Tracing} is enabled. */
+	private PropagationTrace trace;
+	/** The wave whose level this thread is helping to evaluate, or 0. */
+	private long helpedWave;
+	/** The write sections of the thread running {@link #helpedWave}. */
+	private SequenceLock.Section helpedSection;
+
+	/** The level being evaluated, when taken off the queue as a whole. */
+	private CalculatedDynamicProperty<?>[] level = new CalculatedDynamicProperty<?>[16];
+
+	private PropagationScheduler() {
+
+	}
+
+	/**
+	 * Propagates a change of <code>source</code>'s value, running a wave on this
+	 * thread unless one is already running.
+	 */
+	static void propagate(AbstractDynamicProperty<?> source) {
+		beginWrite().endWrite(source);
+	}
+
+	/**
+	 * Opens a write section on this thread, unless it already holds one. Call
+	 * before changing a property, then {@link #endWrite(AbstractDynamicProperty)}.
+	 */
+	static PropagationScheduler beginWrite() {
+		PropagationScheduler scheduler = CURRENT.get();
+		scheduler.enterSection();
+		return scheduler;
+	}
+
+	/**
+	 * Propagates the change of <code>source</code>, or nothing if it is null
+	 * because the write turned out not to be a change, running a wave on this
+	 * thread unless one is already running or batched.
+	 */
+	void endWrite(AbstractDynamicProperty<?> source) {
+		if (source != null) {
+			changed(source);
+		}
+		if (!running && batchDepth == 0) {
+			if (wave != 0) {
+				run();
+			} else {
+				exitSection();
+			}
+		}
+	}
+
+	/**
+	 * @return this thread's write sections, or null if it never wrote
+	 */
+	static SequenceLock.Section ownSection() {
+		return CURRENT.get().section;
+	}
+
+	/**
+	 * @return the write sections of the wave this thread is helping to evaluate,
+	 *         whose thread waits for it, or null
+	 */
+	static SequenceLock.Section helpedSection() {
+		PropagationScheduler scheduler = CURRENT.get();
+		return scheduler.helpedSection != scheduler.section ? scheduler.helpedSection : null;
+	}
+
+	/**
+	 * Runs <code>action</code>, deferring the propagation of every write it makes
+	 * until it returns, then propagates them all in a single wave. Batches nest;
+	 * only the outermost one propagates. The wave also runs if <code>action</code>
+	 * throws, since the writes made before that have already been applied.
+	 */
+	static void runInBatch(Runnable action) {
+		PropagationScheduler scheduler = beginWrite();
+		scheduler.batchDepth++;
+		try {
+			action.run();
+		} finally {
+			scheduler.batchDepth--;
+			scheduler.endWrite(null);
+		}
+	}
+
+	private void enterSection() {
+		if (!writing) {
+			writing = true;
+			if (section == null) {
+				section = SequenceLock.register();
+			}
+			SequenceLock.enter(section, helpedWave != 0);
+		}
+	}
+
+	private void exitSection() {
+		if (writing) {
+			writing = false;
+			SequenceLock.exit(section);
+		}
+	}
+
+	/**
+	 * @return the id of the wave being collected or run on this thread, else of
+	 *         the wave this thread is helping, or 0
+	 */
+	static long currentWave() {
+		PropagationScheduler scheduler = CURRENT.get();
+		return scheduler.wave != 0 ? scheduler.wave : scheduler.helpedWave;
+	}
+
+	/**
+	 * @return true if a wave is running on this thread or being collected by its
+	 *         batch, or this thread is helping another one to evaluate a level:
+	 *         the properties queued then are only evaluated once this thread
+	 *         moves on
+	 */
+	static boolean isPropagating() {
+		PropagationScheduler scheduler = CURRENT.get();
+		return scheduler.running || scheduler.wave != 0 || scheduler.helpedWave != 0;
+	}
+
+	/**
+	 * Evaluates levels of at least <code>threshold</code> properties with up to
+	 * <code>helpers</code> tasks on <code>executor</code>, or always sequentially if
+	 * <code>executor</code> is null.
+	 */
+	static void configureParallelism(Executor executor, int helpers, int threshold) {
+		parallelExecutor = null;
+		parallelism = helpers;
+		parallelThreshold = executor == null ? Integer.MAX_VALUE : threshold;
+		parallelExecutor = executor;
+	}
+
+	private void changed(AbstractDynamicProperty<?> property) {
+		if (wave == 0) {
+			wave = WAVES.incrementAndGet();
+			CalculatedDynamicProperty.releaseCollectedEdges();
+			if (Tracing.enabled) {
+				trace = new PropagationTrace(wave);
+			}
+		}
+		if (trace != null) {
+			trace.changed(property);
+		}
+		// a property written several times in one wave is notified once, with its latest value
+		if (property.pendingWave != wave) {
+			property.pendingWave = wave;
+			changed.add(property);
+		}
+		AtomicReferenceArray<CalculatedDynamicProperty.Edge> edges = property.dependents.snapshot();
+		for (int i = 0; i < edges.length(); i++) {
+			CalculatedDynamicProperty.Edge edge = edges.get(i);
+			CalculatedDynamicProperty<?> dependent = edge == null ? null : edge.get();
+			if (dependent != null && dependent.markQueued()) {
+				offer(dependent, dependent.height);
+				if (trace != null) {
+					trace.queued(dependent, property);
+				}
+			}
+		}
+	}
+
+	private void run() {
+		running = true;
+		try {
+			for (;;) {
+				if (size > 0) {
+					evaluateNext();
+				} else if (notified < changed.size()) {
+					// every evaluation is done, the graph is consistent again
+					exitSection();
+					AbstractDynamicProperty<?> next = changed.get(notified++);
+					// a write made by one of its observers must queue it again
+					next.pendingWave = 0;
+					if (trace == null) {
+						next.notifyObservers();
+					} else {
+						int observers = next.observerCount();
+						long start = System.nanoTime();
+						next.notifyObservers();
+						trace.notified(next, observers, System.nanoTime() - start);
+					}
+				} else {
+					break;
+				}
+			}
+		} finally {
+			// only non-empty if an evaluation or an observer threw
+			while (size > 0) {
+				poll().clearQueued();
+			}
+			changed.clear();
+			notified = 0;
+			if (trace != null) {
+				Tracing.publish(trace);
+				trace = null;
+			}
+			wave = 0;
+			running = false;
+			exitSection();
+		}
+	}
+
+	private void evaluateNext() {
+		int rank = ranks[0];
+		if (size >= parallelThreshold && parallelExecutor != null) {
+			evaluateLevel(rank);
+			return;
+		}
+		CalculatedDynamicProperty<?> next = poll();
+		if (next.height > rank) {
+			// a re-captured dependency moved it further down the graph since it was queued
+			offer(next, next.height);
+			return;
+		}
+		evaluate(next);
+	}
+
+	/**
+	 * Takes every property queued at <code>rank</code> off the queue and evaluates
+	 * them, in parallel if there are enough of them, then queues the dependents of
+	 * those that changed.
+	 */
+	private void evaluateLevel(int rank) {
+		int count = 0;
+		ArrayList<CalculatedDynamicProperty<?>> moved = null;
+		while (size > 0 && ranks[0] == rank) {
+			CalculatedDynamicProperty<?> next = poll();
+			if (next.height > rank) {
+				if (moved == null) {
+					moved = new ArrayList<CalculatedDynamicProperty<?>>();
+				}
+				moved.add(next);
+				continue;
+			}
+			if (count == level.length) {
+				level = Arrays.copyOf(level, count * 2);
+			}
+			level[count++] = next;
+		}
+		if (moved != null) {
+			for (CalculatedDynamicProperty<?> next : moved) {
+				offer(next, next.height);
+			}
+		}
+		Executor executor = parallelExecutor;
+		int helpers = Math.min(parallelism, count - 1);
+		if (count < parallelThreshold || executor == null || helpers < 1) {
+			int i = 0;
+			try {
+				while (i < count) {
+					CalculatedDynamicProperty<?> next = level[i];
+					level[i++] = null;
+					evaluate(next);
+				}
+			} finally {
+				// only if an evaluation threw; the rest of the level is no longer queued
+				while (i < count) {
+					level[i].clearQueued();
+					level[i++] = null;
+				}
+			}
+			return;
+		}
+
+		LevelEvaluation evaluation = new LevelEvaluation(wave, section, Arrays.copyOf(level, count), trace != null);
+		Arrays.fill(level, 0, count, null);
+		for (int i = 0; i < helpers; i++) {
+			try {
+				executor.execute(evaluation);
+			} catch (RejectedExecutionException e) {
+				break;
+			}
+		}
+		evaluation.run();
+		evaluation.await();
+		if (evaluation.failure != null) {
+			throwUnchecked(evaluation.failure);
+		}
+		for (int i = 0; i < count; i++) {
+			if (trace != null) {
+				trace.evaluated(evaluation.properties[i], evaluation.nanos[i], evaluation.changed[i]);
+			}
+			if (evaluation.changed[i]) {
+				changed(evaluation.properties[i]);
+			}
+		}
+	}
+
+	private void evaluate(CalculatedDynamicProperty<?> next) {
+		boolean valueChanged;
+		if (trace == null) {
+			valueChanged = next.evaluateQueued();
+		} else {
+			long start = System.nanoTime();
+			valueChanged = next.evaluateQueued();
+			trace.evaluated(next, System.nanoTime() - start, valueChanged);
+		}
+		if (valueChanged) {
+			changed(next);
+		}
+	}
+
+	private static void throwUnchecked(Throwable failure) {
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		throw new IllegalStateException(failure);
+	}
+
+	/**
+	 * One level of a wave, evaluated by the wave's thread and helper tasks, each
+	 * claiming the next property left until there is none.
+	 */
+	private static final class LevelEvaluation implements Runnable {
+
+		final long wave;
+		final SequenceLock.Section section;
+		final CalculatedDynamicProperty<?>[] properties;
+		final boolean[] changed;
+		/** Evaluation times, if traced. */
+		final long[] nanos;
+		private final AtomicInteger claimed = new AtomicInteger();
+		private final CountDownLatch done;
+		volatile Throwable failure;
+
+		LevelEvaluation(long wave, SequenceLock.Section section, CalculatedDynamicProperty<?>[] properties,
+				boolean timed) {
+			this.wave = wave;
+			this.section = section;
+			this.properties = properties;
+			this.changed = new boolean[properties.length];
+			this.nanos = timed ? new long[properties.length] : null;
+			this.done = new CountDownLatch(properties.length);
+		}
+
+		@Override
+		public void run() {
+			PropagationScheduler scheduler = CURRENT.get();
+			long helped = scheduler.helpedWave;
+			SequenceLock.Section helpedSection = scheduler.helpedSection;
+			scheduler.helpedWave = wave;
+			scheduler.helpedSection = section;
+			try {
+				int i;
+				while ((i = claimed.getAndIncrement()) < properties.length) {
+					try {
+						long start = nanos != null ? System.nanoTime() : 0L;
+						changed[i] = properties[i].evaluateQueued();
+						if (nanos != null) {
+							nanos[i] = System.nanoTime() - start;
+						}
+					} catch (Throwable t) {
+						failure = t;
+					} finally {
+						done.countDown();
+					}
+				}
+			} finally {
+				scheduler.helpedWave = helped;
+				scheduler.helpedSection = helpedSection;
+			}
+		}
+
+		/**
+		 * Waits for the properties claimed by helpers still running.
+		 */
+		void await() {
+			boolean interrupted = false;
+			for (;;) {
+				try {
+					done.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void offer(CalculatedDynamicProperty<?> property, int rank) {
+		if (size == queue.length) {
+			queue = Arrays.copyOf(queue, size * 2);
+			ranks = Arrays.copyOf(ranks, size * 2);
+		}
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (ranks[parent] <= rank) {
+				break;
+			}
+			queue[i] = queue[parent];
+			ranks[i] = ranks[parent];
+			i = parent;
+		}
+		queue[i] = property;
+		ranks[i] = rank;
+	}
+
+	private CalculatedDynamicProperty<?> poll() {
+		CalculatedDynamicProperty<?> head = queue[0];
+		int last = --size;
+		CalculatedDynamicProperty<?> moved = queue[last];
+		int rank = ranks[last];
+		queue[last] = null;
+		if (last > 0) {
+			int i = 0;
+			int half = last >>> 1;
+			while (i < half) {
+				int child = 2 * i + 1;
+				if (child + 1 < last && ranks[child + 1] < ranks[child]) {
+					child++;
+				}
+				if (rank <= ranks[child]) {
+					break;
+				}
+				queue[i] = queue[child];
+				ranks[i] = ranks[child];
+				i = child;
+			}
+			queue[i] = moved;
+			ranks[i] = rank;
+		}
+		return head;
+	}
+}
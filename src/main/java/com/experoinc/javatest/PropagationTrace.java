@@ -0,0 +1,222 @@
+package com.experoinc.javatest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What one change wave did, recorded while tracing is enabled, see
+ * {@link DynamicPropertyFactory#setTracingEnabled(boolean)}.
+ * <p>
+ * The wave is a forest: its roots are the properties written directly, and the
+ * children of a node are the calculated properties it queued for re-evaluation
+ * by changing. A calculated property reached through several changed dependencies
+ * appears once, under the first one. Immutable once published.
+ */
+public final class PropagationTrace {
+
+  private final long wave;
+  private final long startMillis;
+  private final long startNanos;
+  private long durationNanos;
+  private final ArrayList<Node> nodes = new ArrayList<Node>();
+  private final ArrayList<Node> roots = new ArrayList<Node>();
+  private final IdentityHashMap<AbstractDynamicProperty<?>, Node> byProperty = new IdentityHashMap<AbstractDynamicProperty<?>, Node>();
+
+  PropagationTrace(long wave) {
+    this.wave = wave;
+    startMillis = System.currentTimeMillis();
+    startNanos = System.nanoTime();
+  }
+
+  /**
+   * A property involved in a wave.
+   */
+  public static final class Node {
+
+    private final DynamicProperty<?> property;
+    private final Node parent;
+    private final ArrayList<Node> children = new ArrayList<Node>(0);
+    private boolean evaluated;
+    private long evaluationNanos;
+    private boolean changed;
+    private int observers;
+    private long notificationNanos;
+
+    Node(DynamicProperty<?> property, Node parent) {
+      this.property = property;
+      this.parent = parent;
+    }
+
+    public DynamicProperty<?> property() {
+      return property;
+    }
+
+    /**
+     * @return the node whose change queued this one, or null for a property written
+     *         directly
+     */
+    public Node parent() {
+      return parent;
+    }
+
+    public List<Node> children() {
+      return Collections.unmodifiableList(children);
+    }
+
+    /**
+     * @return whether the wave re-evaluated this property, or deferred the
+     *         evaluation of a lazy one to its next read; false for a property
+     *         written directly
+     */
+    public boolean evaluated() {
+      return evaluated;
+    }
+
+    /**
+     * @return how long the re-evaluation took, including the evaluations repeated
+     *         because a dependency changed while it ran
+     */
+    public long evaluationNanos() {
+      return evaluationNanos;
+    }
+
+    /**
+     * @return whether the value of this property changed in the wave
+     */
+    public boolean changed() {
+      return changed;
+    }
+
+    /**
+     * @return the number of subscriptions notified of the change
+     */
+    public int observersNotified() {
+      return observers;
+    }
+
+    public long notificationNanos() {
+      return notificationNanos;
+    }
+  }
+
+  /**
+   * @return the id of the wave; ids grow with every wave, across threads
+   */
+  public long wave() {
+    return wave;
+  }
+
+  /**
+   * @return when the wave started, in milliseconds since the epoch
+   */
+  public long startMillis() {
+    return startMillis;
+  }
+
+  /**
+   * @return how long the wave took, from its first write to its last notification
+   */
+  public long durationNanos() {
+    return durationNanos;
+  }
+
+  /**
+   * @return the properties written directly in the wave
+   */
+  public List<Node> roots() {
+    return Collections.unmodifiableList(roots);
+  }
+
+  /**
+   * @return every node, in the order the properties got involved in the wave
+   */
+  public List<Node> nodes() {
+    return Collections.unmodifiableList(nodes);
+  }
+
+  /**
+   * Renders the wave as an indented tree, naming the properties registered in
+   * {@link DynamicPropertyFactory#registry()}.
+   */
+  @Override
+  public String toString() {
+    IdentityHashMap<DynamicProperty<?>, String> names = new IdentityHashMap<DynamicProperty<?>, String>();
+    for (Map.Entry<String, DynamicProperty<?>> entry : DynamicPropertyFactory.registry().all().entrySet()) {
+      names.put(entry.getValue(), entry.getKey());
+    }
+    StringBuilder out = new StringBuilder();
+    out.append("wave ").append(wave).append(": ").append(nodes.size()).append(" properties in ")
+        .append(durationNanos / 1000).append(" us");
+    for (Node root : roots) {
+      render(root, 1, names, out);
+    }
+    return out.toString();
+  }
+
+  private static void render(Node node, int depth, Map<DynamicProperty<?>, String> names, StringBuilder out) {
+    out.append('\n');
+    for (int i = 0; i < depth; i++) {
+      out.append("  ");
+    }
+    String name = names.get(node.property);
+    out.append(name != null ? name : "<unnamed>");
+    if (node.evaluated) {
+      out.append(" evaluated in ").append(node.evaluationNanos / 1000).append(" us");
+    }
+    out.append(node.changed ? ", changed" : ", unchanged");
+    if (node.observers > 0) {
+      out.append(", ").append(node.observers).append(" observers notified in ")
+          .append(node.notificationNanos / 1000).append(" us");
+    }
+    for (Node child : node.children) {
+      render(child, depth + 1, names, out);
+    }
+  }
+
+  /**
+   * Records a change of <code>property</code>, a root unless the wave queued it.
+   */
+  void changed(AbstractDynamicProperty<?> property) {
+    node(property, null).changed = true;
+  }
+
+  void queued(CalculatedDynamicProperty<?> property, AbstractDynamicProperty<?> cause) {
+    node(property, byProperty.get(cause));
+  }
+
+  void evaluated(CalculatedDynamicProperty<?> property, long nanos, boolean changed) {
+    Node node = node(property, null);
+    node.evaluated = true;
+    node.evaluationNanos += nanos;
+    node.changed |= changed;
+  }
+
+  void notified(AbstractDynamicProperty<?> property, int observers, long nanos) {
+    Node node = node(property, null);
+    node.observers += observers;
+    node.notificationNanos += nanos;
+  }
+
+  void finish() {
+    durationNanos = System.nanoTime() - startNanos;
+    byProperty.clear();
+  }
+
+  private Node node(AbstractDynamicProperty<?> property, Node parent) {
+    Node node = byProperty.get(property);
+    if (node == null) {
+      node = new Node(property, parent);
+      byProperty.put(property, node);
+      nodes.add(node);
+      if (parent == null) {
+        roots.add(node);
+      } else {
+        parent.children.add(node);
+      }
+    }
+    return node;
+  }
+}
@@ -0,0 +1,312 @@
+package com.experoinc.javatest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads named properties of a {@link PropertyRegistry} from configuration files,
+ * and reloads them when the files change.
+ * <p>
+ * <code>.properties</code>, <code>.json</code> and <code>.yaml</code> (or
+ * <code>.yml</code>) files are supported; nested keys are flattened to dotted
+ * names, e.g. <code>server.http.port</code>, and sequence items are numbered from
+ * 0. See {@link ConfigFileParser} for the YAML subset. A file is parsed into a map
+ * of all its values before any of them is applied, and the values last applied
+ * from each file are kept to compare reloads against, so memory use grows with
+ * the size of the files loaded.
+ * <p>
+ * A key without a property gets a new one, typed after its value: a whole number
+ * becomes an <code>Integer</code> (or a <code>Long</code> if it does not fit), a
+ * decimal number a <code>Double</code>, <code>true</code> or <code>false</code> a
+ * <code>Boolean</code> and anything else a <code>String</code>. A key with a
+ * property gets its value converted to the type of the property's current value;
+ * a value that cannot be converted is logged and skipped.
+ * <p>
+ * On reload only the keys whose value changed in the file since it was last loaded
+ * are written, all in a single batch: observers of the other properties are not
+ * notified, and those of the changed ones see the new file as a whole. A key
+ * removed from the file keeps its last value.
+ * <p>
+ * A watched file is reloaded once it has not been modified for
+ * {@link #QUIET_MILLIS}. A file written in several steps should still be replaced
+ * atomically, by writing a temporary file and moving it over the watched one, or a
+ * slow writer may be seen half way.
+ */
+public final class PropertyFileLoader implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(DynamicProperty.class);
+
+	/** How long a watched file must stay unmodified before it is reloaded. */
+	static final long QUIET_MILLIS = 100;
+
+	private final PropertyRegistry registry;
+
+	/** The values of every loaded file that were applied, by file. */
+	private final Map<Path, Map<String, Object>> loaded = new HashMap<Path, Map<String, Object>>();
+
+	private WatchService watchService;
+	private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+	private final Set<Path> watched = new HashSet<Path>();
+	private Thread watcher;
+	private boolean closed;
+
+	public PropertyFileLoader(PropertyRegistry registry) {
+		this.registry = Objects.requireNonNull(registry, "registry");
+	}
+
+	/**
+	 * Loads <code>file</code>, writing the keys that changed since it was last loaded
+	 * (all of them the first time) in a single batch. A key whose value could not be
+	 * applied counts as changed on the next load.
+	 *
+	 * @return the number of keys written
+	 * @throws IOException
+	 *             if the file cannot be read or parsed; no property is changed then
+	 */
+	public synchronized int load(Path file) throws IOException {
+		Path key = file.toAbsolutePath().normalize();
+		final Map<String, Object> values = parse(key);
+		Map<String, Object> previous = loaded.get(key);
+		final Map<String, Object> changed;
+		if (previous == null) {
+			changed = values;
+		} else {
+			changed = new LinkedHashMap<String, Object>();
+			for (Map.Entry<String, Object> entry : values.entrySet()) {
+				if (!previous.containsKey(entry.getKey()) || !Objects.equals(previous.get(entry.getKey()), entry.getValue())) {
+					changed.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		// updated as keys are applied, so a batch that throws half way keeps track of them
+		final Map<String, Object> applied = previous != null ? previous : new HashMap<String, Object>();
+		applied.keySet().retainAll(values.keySet());
+		loaded.put(key, applied);
+		final int[] written = new int[1];
+		if (!changed.isEmpty()) {
+			DynamicPropertyFactory.runInBatch(new Runnable() {
+				@Override
+				public void run() {
+					for (Map.Entry<String, Object> entry : changed.entrySet()) {
+						if (apply(entry.getKey(), entry.getValue())) {
+							applied.put(entry.getKey(), entry.getValue());
+							written[0]++;
+						}
+					}
+				}
+			});
+		}
+		return written[0];
+	}
+
+	/**
+	 * Loads <code>file</code>, then reloads it whenever it is modified or replaced,
+	 * until this loader is closed. Reloads run on a single daemon thread; a reload
+	 * that fails is logged and leaves the properties as they were.
+	 */
+	public synchronized void watch(Path file) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("The loader is closed");
+		}
+		Path path = file.toAbsolutePath().normalize();
+		load(path);
+		if (watchService == null) {
+			watchService = path.getFileSystem().newWatchService();
+			watcher = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					watchLoop();
+				}
+			}, "property-file-watcher");
+			watcher.setDaemon(true);
+			watcher.start();
+		}
+		Path directory = path.getParent();
+		WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		directories.put(key, directory);
+		watched.add(path);
+	}
+
+	/**
+	 * Stops watching files. Loaded properties stay registered and keep their values.
+	 */
+	@Override
+	public void close() throws IOException {
+		Thread stopped;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (watchService == null) {
+				return;
+			}
+			watchService.close();
+			stopped = watcher;
+		}
+		try {
+			stopped.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void watchLoop() {
+		try {
+			for (;;) {
+				Set<Path> changed = new HashSet<Path>();
+				collect(watchService.take(), changed);
+				// a file is usually written in several steps: wait for the last one
+				WatchKey more;
+				while ((more = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+					collect(more, changed);
+				}
+				for (Path path : changed) {
+					reload(path);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * Adds the watched files <code>key</code> reports modified to
+	 * <code>changed</code>.
+	 */
+	private synchronized void collect(WatchKey key, Set<Path> changed) {
+		Path directory = directories.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// events were lost: reload every file watched in this directory
+				for (Path path : watched) {
+					if (path.getParent().equals(directory)) {
+						changed.add(path);
+					}
+				}
+			} else if (directory != null) {
+				Path path = directory.resolve((Path) event.context());
+				if (watched.contains(path)) {
+					changed.add(path);
+				}
+			}
+		}
+		key.reset();
+	}
+
+	private void reload(Path file) {
+		try {
+			int written = load(file);
+			logger.debug("Reloaded " + file + ": " + written + " changed keys");
+		} catch (IOException | RuntimeException e) {
+			// e.g. a file still being written: its next modification reloads it again
+			logger.error("Failed to reload " + file, e);
+		}
+	}
+
+	/**
+	 * @return false if <code>value</code> could not be converted to the type of the
+	 *         property
+	 */
+	private boolean apply(String name, Object value) {
+		DynamicProperty<Object> property = registry.find(name);
+		if (property == null) {
+			Object typed = value instanceof String ? infer((String) value) : value;
+			property = registry.getOrCreate(name, typed);
+			property.setValue(typed);
+			return true;
+		}
+		Object current = property.getValue();
+		Object converted = current == null || value == null ? value : convert(value, current.getClass());
+		if (converted == null && value != null) {
+			logger.error("Cannot set " + name + " to " + value + ": expected a " + current.getClass().getName());
+			return false;
+		}
+		property.setValue(converted);
+		return true;
+	}
+
+	/**
+	 * @return <code>value</code> as a <code>type</code>, or null if it cannot be
+	 *         converted
+	 */
+	private static Object convert(Object value, Class<?> type) {
+		if (type.isInstance(value)) {
+			return value;
+		}
+		if (type == String.class) {
+			return String.valueOf(value);
+		}
+		Object source = value instanceof String ? infer(((String) value).trim()) : value;
+		if (type == Boolean.class) {
+			return source instanceof Boolean ? source : null;
+		}
+		if (!(source instanceof Number)) {
+			return null;
+		}
+		Number number = (Number) source;
+		if (type == Double.class) {
+			return number.doubleValue();
+		}
+		if (source instanceof Double) {
+			return null;
+		}
+		if (type == Long.class) {
+			return number.longValue();
+		}
+		if (type == Integer.class && source instanceof Integer) {
+			return source;
+		}
+		return null;
+	}
+
+	/**
+	 * Types a value read as text.
+	 */
+	private static Object infer(String text) {
+		if (text.equals("true") || text.equals("false")) {
+			return Boolean.valueOf(text);
+		}
+		Object number = ConfigFileParser.parseNumber(text);
+		return number != null ? number : text;
+	}
+
+	private static Map<String, Object> parse(Path file) throws IOException {
+		String name = file.getFileName().toString().toLowerCase();
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			if (name.endsWith(".properties")) {
+				ConfigFileParser.parseProperties(in, values);
+			} else if (name.endsWith(".json")) {
+				ConfigFileParser.parseJson(in, values);
+			} else if (name.endsWith(".yaml") || name.endsWith(".yml")) {
+				ConfigFileParser.parseYaml(in, values);
+			} else {
+				throw new IOException("Unsupported configuration file type: " + file);
+			}
+		} catch (IOException e) {
+			throw new IOException("Failed to load " + file + ": " + e.getMessage(), e);
+		}
+		return values;
+	}
+}
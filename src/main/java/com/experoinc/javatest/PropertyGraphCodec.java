@@ -0,0 +1,202 @@
+package com.experoinc.javatest;
+
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Binary format of a {@link PropertyGraphImage}, big-endian:
+ *
+ * <pre>
+ * header: magic "DPGI", format, clock (long), entry count
+ * entry:  name (length and UTF-8 bytes, empty if unnamed), flags (byte),
+ *         version (long), value (see {@link ValueCodec}),
+ *         dependency count, index of each dependency in the entry table
+ * </pre>
+ *
+ * Registered properties come first, in name order, followed by the unnamed ones
+ * that registered calculated properties depend on, directly or not.
+ */
+final class PropertyGraphCodec {
+
+	/** "DPGI" */
+	private static final int MAGIC = 0x44504749;
+	private static final int FORMAT = 1;
+	private static final int HEADER = 4 + 4 + 8 + 4;
+	private static final byte[] NO_NAME = new byte[0];
+
+	static final byte CALCULATED = 1;
+	/** The value is of a type {@link ValueCodec} cannot encode, and written as null. */
+	static final byte OPAQUE = 2;
+
+	private PropertyGraphCodec() {
+
+	}
+
+	/**
+	 * Encodes every property of <code>registry</code>, as they all were at one
+	 * point in time.
+	 *
+	 * @return a heap buffer holding the image, ready to be read
+	 */
+	static ByteBuffer export(PropertyRegistry registry) {
+		final ArrayList<String> names = new ArrayList<String>();
+		final ArrayList<DynamicProperty<?>> registered = new ArrayList<DynamicProperty<?>>();
+		for (Map.Entry<String, DynamicProperty<?>> entry : registry.all().entrySet()) {
+			names.add(entry.getKey());
+			registered.add(entry.getValue());
+		}
+
+		final ArrayList<DynamicProperty<?>> properties = new ArrayList<DynamicProperty<?>>();
+		final ArrayList<Object> values = new ArrayList<Object>();
+		final long[][] versions = new long[1][];
+		final ArrayList<int[]> dependencies = new ArrayList<int[]>();
+		final long[] clock = new long[1];
+		SequenceLock.read(new Runnable() {
+			@Override
+			public void run() {
+				properties.clear();
+				values.clear();
+				dependencies.clear();
+				properties.addAll(registered);
+				IdentityHashMap<DynamicProperty<?>, Integer> index = new IdentityHashMap<DynamicProperty<?>, Integer>();
+				for (int i = 0; i < properties.size(); i++) {
+					index.put(properties.get(i), i);
+				}
+				long[] stamps = new long[properties.size()];
+				for (int i = 0; i < properties.size(); i++) {
+					DynamicProperty<?> property = properties.get(i);
+					if (i == stamps.length) {
+						stamps = Arrays.copyOf(stamps, stamps.length * 2);
+					}
+					if (!(property instanceof AbstractDynamicProperty)) {
+						stamps[i] = property.getVersion();
+						values.add(property.getValue());
+						dependencies.add(null);
+						continue;
+					}
+					AbstractDynamicProperty<?> known = (AbstractDynamicProperty<?>) property;
+					known.bringUpToDate();
+					stamps[i] = known.version;
+					values.add(known.currentValue());
+					if (!(known instanceof CalculatedDynamicProperty)) {
+						dependencies.add(null);
+						continue;
+					}
+					AbstractDynamicProperty<?>[] read = ((CalculatedDynamicProperty<?>) known).dependencies();
+					int[] edges = new int[read.length];
+					for (int d = 0; d < read.length; d++) {
+						Integer at = index.get(read[d]);
+						if (at == null) {
+							at = properties.size();
+							index.put(read[d], at);
+							properties.add(read[d]);
+						}
+						edges[d] = at;
+					}
+					dependencies.add(edges);
+				}
+				versions[0] = stamps;
+				clock[0] = LogicalClock.now();
+			}
+		});
+
+		int count = properties.size();
+		byte[][] nameBytes = new byte[count][];
+		byte[][] valueBytes = new byte[count][];
+		byte[] flags = new byte[count];
+		int size = HEADER;
+		for (int i = 0; i < count; i++) {
+			nameBytes[i] = i < names.size() ? names.get(i).getBytes(StandardCharsets.UTF_8) : NO_NAME;
+			if (properties.get(i) instanceof CalculatedDynamicProperty) {
+				flags[i] |= CALCULATED;
+			}
+			if (!ValueCodec.isSupported(values.get(i))) {
+				flags[i] |= OPAQUE;
+				values.set(i, null);
+			}
+			valueBytes[i] = ValueCodec.utf8(values.get(i));
+			int[] edges = dependencies.get(i);
+			size += 4 + nameBytes[i].length + 1 + 8 + ValueCodec.sizeOf(values.get(i), valueBytes[i]) + 4
+					+ (edges == null ? 0 : 4 * edges.length);
+		}
+
+		ByteBuffer out = ByteBuffer.allocate(size);
+		out.putInt(MAGIC).putInt(FORMAT).putLong(clock[0]).putInt(count);
+		for (int i = 0; i < count; i++) {
+			ValueCodec.writeString(out, nameBytes[i]);
+			out.put(flags[i]).putLong(versions[0][i]);
+			ValueCodec.write(out, values.get(i), valueBytes[i]);
+			int[] edges = dependencies.get(i);
+			if (edges == null) {
+				out.putInt(0);
+			} else {
+				out.putInt(edges.length);
+				for (int edge : edges) {
+					out.putInt(edge);
+				}
+			}
+		}
+		((Buffer) out).flip();
+		return out;
+	}
+
+	/**
+	 * Decodes an image from the remaining bytes of <code>in</code>. Names are
+	 * decoded right away, straight from the buffer's backing array if it has one;
+	 * values are decoded from the buffer when asked for, so it must not be modified
+	 * while the image is in use. The position of <code>in</code> is not changed.
+	 *
+	 * @throws IllegalArgumentException if the bytes are not a valid image
+	 */
+	static PropertyGraphImage decode(ByteBuffer in) {
+		ByteBuffer data = in.slice();
+		try {
+			if (data.getInt() != MAGIC) {
+				throw new IllegalArgumentException("Not a property graph image");
+			}
+			int format = data.getInt();
+			if (format != FORMAT) {
+				throw new IllegalArgumentException("Unsupported property graph image format " + format);
+			}
+			long clock = data.getLong();
+			int count = data.getInt();
+			if (count < 0 || count > data.remaining() / (4 + 1 + 8 + 1 + 4)) {
+				throw new IllegalArgumentException("Invalid entry count " + count);
+			}
+			String[] names = new String[count];
+			byte[] flags = new byte[count];
+			long[] versions = new long[count];
+			int[] valueOffsets = new int[count];
+			int[][] dependencies = new int[count][];
+			for (int i = 0; i < count; i++) {
+				String name = ValueCodec.readString(data);
+				names[i] = name.isEmpty() ? null : name;
+				flags[i] = data.get();
+				versions[i] = data.getLong();
+				valueOffsets[i] = data.position();
+				ValueCodec.skip(data);
+				int edges = data.getInt();
+				if (edges < 0 || edges > data.remaining() / 4) {
+					throw new IllegalArgumentException("Invalid dependency count " + edges);
+				}
+				dependencies[i] = new int[edges];
+				for (int d = 0; d < edges; d++) {
+					int edge = data.getInt();
+					if (edge < 0 || edge >= count) {
+						throw new IllegalArgumentException("Invalid dependency index " + edge);
+					}
+					dependencies[i][d] = edge;
+				}
+			}
+			return new PropertyGraphImage(data, clock, names, flags, versions, valueOffsets, dependencies);
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Truncated property graph image", e);
+		}
+	}
+}
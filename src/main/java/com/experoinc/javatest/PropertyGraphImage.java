@@ -0,0 +1,163 @@
+package com.experoinc.javatest;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The named properties of a {@link PropertyRegistry} as they all were at one point
+ * in time, with their versions and the dependencies between them, decoded from
+ * the binary form made by {@link DynamicPropertyFactory#exportGraph()}.
+ * <p>
+ * Entries are numbered from 0. Registered properties come first, then the unnamed
+ * properties the calculated ones depend on, directly or not, so that dependencies
+ * can be followed through them. Only <code>String</code>, <code>Integer</code>,
+ * <code>Long</code>, <code>Double</code> and <code>Boolean</code> values (and
+ * <code>null</code>) are part of the image; other values read as null and are
+ * reported by {@link #hasValue(int)}.
+ * <p>
+ * Values are decoded from the buffer the image was read from on every call,
+ * nothing is copied: the buffer must not be modified while the image is in use.
+ */
+public final class PropertyGraphImage {
+
+  private static final Logger logger = LoggerFactory.getLogger(DynamicProperty.class);
+
+  private final ByteBuffer data;
+  private final long clock;
+  private final String[] names;
+  private final byte[] flags;
+  private final long[] versions;
+  private final int[] valueOffsets;
+  private final int[][] dependencies;
+  private final HashMap<String, Integer> index;
+
+  PropertyGraphImage(ByteBuffer data, long clock, String[] names, byte[] flags, long[] versions, int[] valueOffsets,
+      int[][] dependencies) {
+    this.data = data;
+    this.clock = clock;
+    this.names = names;
+    this.flags = flags;
+    this.versions = versions;
+    this.valueOffsets = valueOffsets;
+    this.dependencies = dependencies;
+    index = new HashMap<String, Integer>(names.length * 2);
+    for (int i = 0; i < names.length; i++) {
+      if (names[i] != null) {
+        index.put(names[i], i);
+      }
+    }
+  }
+
+  /**
+   * Reads an image from the remaining bytes of <code>buffer</code>, without
+   * changing its position.
+   *
+   * @throws IllegalArgumentException if the bytes are not a valid image
+   */
+  public static PropertyGraphImage read(ByteBuffer buffer) {
+    return PropertyGraphCodec.decode(buffer);
+  }
+
+  public int size() {
+    return names.length;
+  }
+
+  /**
+   * @return the number of the entry registered as <code>name</code>, or -1
+   */
+  public int indexOf(String name) {
+    Integer i = index.get(name);
+    return i == null ? -1 : i;
+  }
+
+  /**
+   * @return the name of entry <code>i</code>, or null if it was not registered
+   */
+  public String name(int i) {
+    return names[i];
+  }
+
+  public Object value(int i) {
+    ByteBuffer in = data.duplicate();
+    ((Buffer) in).position(valueOffsets[i]);
+    return ValueCodec.read(in);
+  }
+
+  /**
+   * @return whether the value of entry <code>i</code> could be exported
+   */
+  public boolean hasValue(int i) {
+    return (flags[i] & PropertyGraphCodec.OPAQUE) == 0;
+  }
+
+  public long version(int i) {
+    return versions[i];
+  }
+
+  public boolean isCalculated(int i) {
+    return (flags[i] & PropertyGraphCodec.CALCULATED) != 0;
+  }
+
+  /**
+   * @return the entries read by the last evaluation of entry <code>i</code>, none
+   *         if it is not calculated
+   */
+  public int[] dependencies(int i) {
+    return dependencies[i].clone();
+  }
+
+  /**
+   * @return the clock stamp of the export: every version in the image is at most it
+   */
+  public long clock() {
+    return clock;
+  }
+
+  /**
+   * Sets every registered plain property of the image in <code>registry</code> to
+   * its value, creating the missing ones, in a single batch. Calculated properties
+   * are not part of it: they are re-evaluated from their dependencies. An entry
+   * whose value has another type than the current value of the property is logged
+   * and skipped.
+   * <p>
+   * The process clock is moved past {@link #clock()} first, so the properties
+   * changed by the import, and every later change, get versions greater than
+   * those of the image.
+   *
+   * @return the number of properties set
+   */
+  public int applyTo(final PropertyRegistry registry) {
+    LogicalClock.advanceTo(clock);
+    final int[] applied = new int[1];
+    DynamicPropertyFactory.runInBatch(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < names.length; i++) {
+          if (names[i] != null && !isCalculated(i) && hasValue(i) && apply(registry, names[i], value(i))) {
+            applied[0]++;
+          }
+        }
+      }
+    });
+    return applied[0];
+  }
+
+  private static boolean apply(PropertyRegistry registry, String name, Object value) {
+    DynamicProperty<Object> property = registry.find(name);
+    if (property == null) {
+      property = registry.getOrCreate(name, value);
+    } else {
+      Object current = property.getValue();
+      if (current != null && value != null && current.getClass() != value.getClass()) {
+        logger.error("Cannot import " + name + ": expected a " + current.getClass().getName() + " but got " + value);
+        return false;
+      }
+    }
+    property.setValue(value);
+    return true;
+  }
+}
@@ -0,0 +1,43 @@
+package com.experoinc.javatest;
+
+/**
+ * Usage counters and timings of one property, or of all of them, see
+ * {@link DynamicPropertyFactory#metrics(DynamicProperty)} and
+ * {@link DynamicPropertyFactory#metrics()}. Only events that happen while metrics
+ * are enabled are counted. The values are live: each call returns the current
+ * count.
+ */
+public interface PropertyMetrics {
+
+  /**
+   * @return the number of calls to <code>getValue</code> and its primitive variants
+   */
+  long reads();
+
+  /**
+   * @return the number of calls to <code>setValue</code> and its primitive
+   *         variants, whether they changed the value or not
+   */
+  long writes();
+
+  /**
+   * @return the number of times the read function of a calculated property was
+   *         called; values served from a memoizing cache are not counted
+   */
+  long evaluations();
+
+  /**
+   * @return the number of values delivered to observers
+   */
+  long notifications();
+
+  /**
+   * @return how long the read functions of calculated properties took
+   */
+  LatencyHistogram evaluationTime();
+
+  /**
+   * @return how long observers took to handle a value
+   */
+  LatencyHistogram observerTime();
+}
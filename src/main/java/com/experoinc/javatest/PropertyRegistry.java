@@ -0,0 +1,155 @@
+package com.experoinc.javatest;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Dynamic properties registered under a name.
+ * <p>
+ * Names are hierarchical, with <code>.</code> separating the levels, e.g.
+ * <code>server.http.port</code>. The registry is a concurrent skip list sorted by
+ * name: lookups never lock and a whole level of the hierarchy, or every name
+ * starting with some prefix, is a contiguous range of it. Besides the name and the
+ * property an entry only costs a skip list node.
+ * <p>
+ * Lookups are logarithmic in the number of names: resolve a property once and keep
+ * the handle rather than looking it up on every use. Views returned by the lookup
+ * methods are live and unmodifiable; iterating them never throws
+ * {@link java.util.ConcurrentModificationException}.
+ */
+public final class PropertyRegistry {
+
+	private static final char SEPARATOR = '.';
+
+	private final ConcurrentSkipListMap<String, DynamicProperty<?>> properties = new ConcurrentSkipListMap<String, DynamicProperty<?>>();
+
+	/**
+	 * Gets the property registered under <code>name</code>, registering a new plain
+	 * property holding <code>defaultValue</code> if there is none. Threads racing to
+	 * create the same name all get the same property.
+	 *
+	 * @param name
+	 *            The name of the property
+	 * @param defaultValue
+	 *            The initial value of the property if it has to be created
+	 * @param <T>
+	 *            The data type, which must match the one of an existing property
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> DynamicProperty<T> getOrCreate(String name, T defaultValue) {
+		DynamicProperty<?> existing = properties.get(checkName(name));
+		if (existing == null) {
+			DynamicProperty<T> created = DynamicPropertyFactory.create(defaultValue);
+			existing = properties.putIfAbsent(name, created);
+			if (existing == null) {
+				return created;
+			}
+		}
+		return (DynamicProperty<T>) existing;
+	}
+
+	/**
+	 * Registers <code>property</code>, plain or calculated, under <code>name</code>.
+	 *
+	 * @throws IllegalArgumentException if another property is registered under <code>name</code>
+	 */
+	public <T> DynamicProperty<T> register(String name, DynamicProperty<T> property) {
+		DynamicProperty<?> existing = properties.putIfAbsent(checkName(name), Objects.requireNonNull(property, "property"));
+		if (existing != null && existing != property) {
+			throw new IllegalArgumentException("A property is already registered as " + name);
+		}
+		return property;
+	}
+
+	/**
+	 * @return the property registered under <code>name</code>, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> DynamicProperty<T> find(String name) {
+		return (DynamicProperty<T>) properties.get(checkName(name));
+	}
+
+	/**
+	 * Unregisters the property registered under <code>name</code>. It keeps working
+	 * for whoever holds it.
+	 *
+	 * @return the property that was registered, or null
+	 */
+	public DynamicProperty<?> remove(String name) {
+		return properties.remove(checkName(name));
+	}
+
+	/**
+	 * Every registered property whose name starts with <code>prefix</code>, by name.
+	 */
+	public NavigableMap<String, DynamicProperty<?>> withPrefix(String prefix) {
+		String end = successor(prefix);
+		if (end == null) {
+			return Collections.unmodifiableNavigableMap(properties.tailMap(prefix, true));
+		}
+		return Collections.unmodifiableNavigableMap(properties.subMap(prefix, true, end, false));
+	}
+
+	/**
+	 * Every registered property below <code>path</code> in the hierarchy, at any
+	 * depth, by name: <code>children("server")</code> includes
+	 * <code>server.port</code> and <code>server.http.port</code> but not
+	 * <code>server</code> itself or <code>serverless.enabled</code>.
+	 */
+	public NavigableMap<String, DynamicProperty<?>> children(String path) {
+		return withPrefix(checkName(path) + SEPARATOR);
+	}
+
+	/**
+	 * Every registered property, by name.
+	 */
+	public NavigableMap<String, DynamicProperty<?>> all() {
+		return Collections.unmodifiableNavigableMap(properties);
+	}
+
+	/**
+	 * @return the number of registered properties, counted one by one
+	 */
+	public int size() {
+		return properties.size();
+	}
+
+	/**
+	 * Names <code>property</code> for diagnostics: its name in
+	 * {@link DynamicPropertyFactory#registry()}, or <code>&lt;unnamed&gt;</code>.
+	 * Scans the registry, so only call it on error paths.
+	 */
+	static String describe(DynamicProperty<?> property) {
+		for (Map.Entry<String, DynamicProperty<?>> entry : DynamicPropertyFactory.registry().all().entrySet()) {
+			if (entry.getValue() == property) {
+				return entry.getKey();
+			}
+		}
+		return "<unnamed>";
+	}
+
+	/**
+	 * @return the smallest string greater than every string starting with
+	 *         <code>prefix</code>, or null if there is none
+	 */
+	private static String successor(String prefix) {
+		for (int last = prefix.length() - 1; last >= 0; last--) {
+			char c = prefix.charAt(last);
+			if (c != Character.MAX_VALUE) {
+				return prefix.substring(0, last) + (char) (c + 1);
+			}
+		}
+		return null;
+	}
+
+	private static String checkName(String name) {
+		if (name == null || name.isEmpty()) {
+			throw new IllegalArgumentException("A property name must not be empty");
+		}
+		return name;
+	}
+}
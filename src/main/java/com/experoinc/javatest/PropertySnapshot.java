@@ -0,0 +1,66 @@
+package com.experoinc.javatest;
+
+import java.util.IdentityHashMap;
+
+/**
+ * The values a set of {@link DynamicProperty} instances held at one point in time,
+ * see {@link DynamicPropertyFactory#snapshot(DynamicProperty...)}. Immutable: later
+ * changes of the properties do not show through.
+ */
+public final class PropertySnapshot {
+
+  /** Above this many properties lookups use a hash map instead of a scan. */
+  private static final int LINEAR_SCAN_LIMIT = 8;
+
+  private final DynamicProperty<?>[] properties;
+  private final Object[] values;
+  private final IdentityHashMap<DynamicProperty<?>, Integer> index;
+
+  PropertySnapshot(DynamicProperty<?>[] properties, Object[] values) {
+    this.properties = properties;
+    this.values = values;
+    if (properties.length > LINEAR_SCAN_LIMIT) {
+      index = new IdentityHashMap<DynamicProperty<?>, Integer>();
+      for (int i = 0; i < properties.length; i++) {
+        index.put(properties[i], i);
+      }
+    } else {
+      index = null;
+    }
+  }
+
+  /**
+   * Gets the value <code>property</code> held when the snapshot was taken.
+   *
+   * @throws IllegalArgumentException if <code>property</code> is not part of this snapshot
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T get(DynamicProperty<T> property) {
+    int i = indexOf(property);
+    if (i < 0) {
+      throw new IllegalArgumentException("Property is not part of this snapshot");
+    }
+    return (T) values[i];
+  }
+
+  public boolean contains(DynamicProperty<?> property) {
+    return indexOf(property) >= 0;
+  }
+
+  public int size() {
+    return properties.length;
+  }
+
+  private int indexOf(DynamicProperty<?> property) {
+    if (index != null) {
+      Integer i = index.get(property);
+      return i == null ? -1 : i;
+    }
+    for (int i = 0; i < properties.length; i++) {
+      if (properties[i] == property) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
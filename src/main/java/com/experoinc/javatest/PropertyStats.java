@@ -0,0 +1,44 @@
+package com.experoinc.javatest;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Striped counters and histograms behind {@link PropertyMetrics}.
+ */
+final class PropertyStats implements PropertyMetrics {
+
+	final LongAdder reads = new LongAdder();
+	final LongAdder writes = new LongAdder();
+	final LatencyHistogram evaluationTime = new LatencyHistogram();
+	final LatencyHistogram observerTime = new LatencyHistogram();
+
+	@Override
+	public long reads() {
+		return reads.sum();
+	}
+
+	@Override
+	public long writes() {
+		return writes.sum();
+	}
+
+	@Override
+	public long evaluations() {
+		return evaluationTime.count();
+	}
+
+	@Override
+	public long notifications() {
+		return observerTime.count();
+	}
+
+	@Override
+	public LatencyHistogram evaluationTime() {
+		return evaluationTime;
+	}
+
+	@Override
+	public LatencyHistogram observerTime() {
+		return observerTime;
+	}
+}
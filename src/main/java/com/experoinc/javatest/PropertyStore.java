@@ -0,0 +1,537 @@
+package com.experoinc.javatest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists named properties of a {@link PropertyRegistry} to an append-only log
+ * file, and restores them from it.
+ * <p>
+ * The log is memory-mapped: a change of a bound property is appended by its
+ * observer as one record (name, value and a CRC32 checksum) copied into the
+ * mapping, with no system call. The operating system writes the pages back on its
+ * own, so a process crash loses nothing; a background thread also forces them to
+ * disk every flush interval, which bounds what an operating system crash can lose.
+ * On open the records are replayed up to the first one that is incomplete or fails
+ * its checksum, i.e. one torn by a crash.
+ * <p>
+ * When the log fills up with superseded records it is compacted: the latest value
+ * of every name is written to a new file, which then atomically replaces the log.
+ * Growing the mapping and compacting are left to the flush thread, which starts
+ * on them once the mapping is three quarters full, so a change never waits for
+ * the disk. Changes made while the mapping is full or being replaced are queued
+ * in memory, where a process crash loses them, and appended right after.
+ * <p>
+ * Only <code>String</code>, <code>Integer</code>, <code>Long</code>,
+ * <code>Double</code> and <code>Boolean</code> values (and <code>null</code>) can be
+ * persisted. The log is limited to 2 GB.
+ */
+public final class PropertyStore implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(DynamicProperty.class);
+
+	/** "DPLG" */
+	private static final int MAGIC = 0x44504c47;
+	private static final int FORMAT = 1;
+	private static final int HEADER = 8;
+	/** Payload length and checksum. A zero length ends the log. */
+	private static final int RECORD_HEADER = 8;
+	private static final int MIN_CAPACITY = 64 * 1024;
+	/** Superseded records tolerated before compacting, besides one per live name. */
+	private static final int COMPACTION_SLACK = 1024;
+
+	public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+	private final Path file;
+	private final PropertyRegistry registry;
+
+	/** Replaced under the lock by maintenance, which holds {@link #maintenance} too. */
+	private FileChannel channel;
+	/** Written under the lock, forced outside it. */
+	private volatile MappedByteBuffer log;
+	/** Offset after the last record. */
+	private int end;
+	private int records;
+	private final CRC32 crc = new CRC32();
+	private volatile boolean dirty;
+	private boolean closed;
+
+	/** Changes waiting for room in the log, oldest first. */
+	private final ArrayDeque<Pending> pending = new ArrayDeque<Pending>();
+	/** Bytes the pending changes take as records. */
+	private long pendingBytes;
+	/** Whether the log is being compacted: changes wait in {@link #pending}. */
+	private boolean compacting;
+	private boolean maintenanceRequested;
+	/** Held while growing or compacting the log, never by the writers of changes. */
+	private final Object maintenance = new Object();
+	private final Runnable maintainTask = new Runnable() {
+		@Override
+		public void run() {
+			maintain();
+		}
+	};
+
+	/** Persisted values not bound to a property yet, by name. */
+	private final Map<String, Object> unbound = new LinkedHashMap<String, Object>();
+	private final Map<String, Binding<?>> bindings = new HashMap<String, Binding<?>>();
+
+	private final ScheduledExecutorService flusher;
+
+	private PropertyStore(Path file, PropertyRegistry registry, long flushIntervalMillis) throws IOException {
+		this.file = file;
+		this.registry = registry;
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			log = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(MIN_CAPACITY, channel.size()));
+			replay();
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "property-store-flusher " + PropertyStore.this.file.getFileName());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		flusher.scheduleWithFixedDelay(maintainTask, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Opens the log at <code>file</code>, creating it if need be, and reads the
+	 * values persisted in it. Nothing is bound yet: see {@link #bind(String, Object)}
+	 * and {@link #restoreAll()}.
+	 */
+	public static PropertyStore open(Path file, PropertyRegistry registry) throws IOException {
+		return open(file, registry, DEFAULT_FLUSH_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * @param flushIntervalMillis
+	 *            How often changes are forced to disk and compaction is considered
+	 * @see #open(Path, PropertyRegistry)
+	 */
+	public static PropertyStore open(Path file, PropertyRegistry registry, long flushIntervalMillis) throws IOException {
+		if (flushIntervalMillis <= 0) {
+			throw new IllegalArgumentException("flushIntervalMillis must be positive: " + flushIntervalMillis);
+		}
+		return new PropertyStore(file, registry, flushIntervalMillis);
+	}
+
+	/**
+	 * Gets the property registered under <code>name</code>, creating it if need be,
+	 * sets it to its persisted value, if any, and persists its changes from now on.
+	 * Without a persisted value, its current value is persisted right away.
+	 * A persisted value of another type than <code>defaultValue</code> is ignored.
+	 *
+	 * @throws IllegalArgumentException if values of this type cannot be persisted
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T> DynamicProperty<T> bind(String name, T defaultValue) {
+		if (closed) {
+			throw new IllegalStateException("Property store is closed");
+		}
+		Binding<?> existing = bindings.get(name);
+		if (existing != null) {
+			return (DynamicProperty<T>) existing.property;
+		}
+		if (!ValueCodec.isSupported(defaultValue)) {
+			throw new IllegalArgumentException("Values of " + name + " cannot be persisted: " + defaultValue.getClass().getName());
+		}
+		boolean restore = unbound.containsKey(name);
+		Object persisted = unbound.remove(name);
+		if (restore && persisted != null && defaultValue != null && persisted.getClass() != defaultValue.getClass()) {
+			logger.warn("Ignoring persisted value of " + name + ": expected a " + defaultValue.getClass().getName());
+			restore = false;
+		}
+		DynamicProperty<T> property = registry.getOrCreate(name, restore ? (T) persisted : defaultValue);
+		if (restore) {
+			property.setValue((T) persisted);
+		}
+		Binding<T> binding = new Binding<T>(name, property);
+		bindings.put(name, binding);
+		binding.subscription = property.subscribe(binding);
+		if (!restore) {
+			// the property may not hold its default value if it was registered before
+			append(binding, property.getValue());
+		}
+		return property;
+	}
+
+	/**
+	 * Binds every persisted name not bound yet, creating the properties it has to.
+	 *
+	 * @return the number of properties restored
+	 */
+	public synchronized int restoreAll() {
+		int restored = 0;
+		for (Map.Entry<String, Object> entry : new ArrayList<Map.Entry<String, Object>>(unbound.entrySet())) {
+			bind(entry.getKey(), entry.getValue());
+			restored++;
+		}
+		return restored;
+	}
+
+	/**
+	 * @return the value persisted for <code>name</code> and not bound yet, or null
+	 */
+	public synchronized Object persistedValue(String name) {
+		return unbound.get(name);
+	}
+
+	/**
+	 * Forces the changes appended so far to disk.
+	 */
+	public void flush() {
+		dirty = false;
+		log.force();
+	}
+
+	/**
+	 * Rewrites the log with only the latest value of every name, on the calling
+	 * thread.
+	 */
+	public void compact() throws IOException {
+		synchronized (maintenance) {
+			makeRoom(true);
+		}
+	}
+
+	/**
+	 * Stops persisting changes, appends those still queued, forces the log to disk
+	 * and closes it. The bound properties stay registered and keep working.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			for (Binding<?> binding : bindings.values()) {
+				binding.subscription.close();
+			}
+		}
+		flusher.shutdown();
+		synchronized (maintenance) {
+			synchronized (this) {
+				if (!pending.isEmpty()) {
+					long capacity = (long) end + pendingBytes + 4;
+					if (capacity > Integer.MAX_VALUE) {
+						logger.error("Property log is full, dropping " + pending.size() + " changes: " + file);
+					} else if (capacity > log.capacity()) {
+						log = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+					}
+					drainPending();
+				}
+			}
+			log.force();
+			channel.close();
+		}
+	}
+
+	/** Records in the log, superseded ones included. */
+	synchronized int records() {
+		return records;
+	}
+
+	/**
+	 * Appends a change to the mapping, or queues it if there is no room or the log
+	 * is being compacted; never touches the disk.
+	 */
+	private synchronized void append(Binding<?> binding, Object value) {
+		if (closed) {
+			return;
+		}
+		if (!ValueCodec.isSupported(value)) {
+			logger.error("Value of " + binding.name + " cannot be persisted: " + value.getClass().getName());
+			return;
+		}
+		byte[] utf8 = ValueCodec.utf8(value);
+		int size = RECORD_HEADER + 4 + binding.nameBytes.length + ValueCodec.sizeOf(value, utf8);
+		if (compacting || !pending.isEmpty() || end + size + 4 > log.capacity()) {
+			pending.add(new Pending(binding.nameBytes, value));
+			pendingBytes += size;
+			requestMaintenance();
+			return;
+		}
+		end = writeRecord(log, end, binding.nameBytes, value, utf8);
+		records++;
+		dirty = true;
+		if (end > log.capacity() - log.capacity() / 4) {
+			requestMaintenance();
+		}
+	}
+
+	private void requestMaintenance() {
+		if (!maintenanceRequested) {
+			maintenanceRequested = true;
+			flusher.execute(maintainTask);
+		}
+	}
+
+	/**
+	 * Appends the queued changes that fit in the mapping.
+	 */
+	private void drainPending() {
+		while (!pending.isEmpty()) {
+			Pending next = pending.peek();
+			byte[] utf8 = ValueCodec.utf8(next.value);
+			int size = RECORD_HEADER + 4 + next.name.length + ValueCodec.sizeOf(next.value, utf8);
+			if (end + size + 4 > log.capacity()) {
+				return;
+			}
+			end = writeRecord(log, end, next.name, next.value, utf8);
+			records++;
+			dirty = true;
+			pending.poll();
+			pendingBytes -= size;
+		}
+	}
+
+	/**
+	 * Writes one record at <code>position</code> followed by an end marker. The
+	 * length goes in last, so a record is only visible to a replay once complete.
+	 *
+	 * @return the offset after the record
+	 */
+	private int writeRecord(ByteBuffer target, int position, byte[] name, Object value, byte[] utf8) {
+		ByteBuffer out = target.duplicate();
+		((Buffer) out).position(position + RECORD_HEADER);
+		ValueCodec.writeString(out, name);
+		ValueCodec.write(out, value, utf8);
+		int next = out.position();
+		int length = next - position - RECORD_HEADER;
+		target.putInt(position + 4, checksum(target, position + RECORD_HEADER, length));
+		target.putInt(next, 0);
+		target.putInt(position, length);
+		return next;
+	}
+
+	private int checksum(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer payload = buffer.duplicate();
+		((Buffer) payload).limit(offset + length).position(offset);
+		crc.reset();
+		crc.update(payload);
+		return (int) crc.getValue();
+	}
+
+	private void replay() throws IOException {
+		MappedByteBuffer in = log;
+		if (in.getInt(0) == 0) {
+			in.putInt(0, MAGIC).putInt(4, FORMAT);
+			end = HEADER;
+			return;
+		}
+		if (in.getInt(0) != MAGIC || in.getInt(4) != FORMAT) {
+			throw new IOException("Not a property log: " + file);
+		}
+		int position = HEADER;
+		while (position + RECORD_HEADER <= in.capacity()) {
+			int length = in.getInt(position);
+			if (length <= 0 || length > in.capacity() - position - RECORD_HEADER) {
+				break;
+			}
+			int payload = position + RECORD_HEADER;
+			if (checksum(in, payload, length) != in.getInt(position + 4)) {
+				logger.warn("Discarding torn record at offset " + position + " of " + file);
+				break;
+			}
+			ByteBuffer record = in.duplicate();
+			((Buffer) record).limit(payload + length).position(payload);
+			String name = ValueCodec.readString(record);
+			unbound.put(name, ValueCodec.read(record));
+			records++;
+			position = payload + length;
+		}
+		end = position;
+		if (end + 4 <= in.capacity()) {
+			in.putInt(end, 0);
+		}
+	}
+
+	private int liveNames() {
+		return bindings.size() + unbound.size();
+	}
+
+	/**
+	 * Grows the mapping, or compacts the log if <code>compact</code> or if it is
+	 * mostly superseded records, unless a quarter of it is still free beyond the
+	 * queued changes; then appends them. The disk is only accessed outside the
+	 * lock. Called holding {@link #maintenance}.
+	 */
+	private void makeRoom(boolean compact) throws IOException {
+		long needed;
+		long capacity;
+		Map<String, Object> latest = null;
+		FileChannel current;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			needed = pendingBytes + log.capacity() / 4;
+			if (!compact && end + needed <= log.capacity()) {
+				drainPending();
+				return;
+			}
+			current = channel;
+			capacity = Math.max(2L * log.capacity(), (long) end + needed + 4);
+			if (compact || records > liveNames() + COMPACTION_SLACK) {
+				latest = new LinkedHashMap<String, Object>(unbound);
+				for (Binding<?> binding : bindings.values()) {
+					Object value = binding.property.getValue();
+					if (ValueCodec.isSupported(value)) {
+						latest.put(binding.name, value);
+					}
+				}
+				// what is queued so far is older than the values just read
+				pending.clear();
+				pendingBytes = 0;
+				compacting = true;
+			}
+		}
+		if (latest == null) {
+			if (capacity > Integer.MAX_VALUE) {
+				throw new IOException("Property log is full: " + file);
+			}
+			// maps the same file, so changes appended meanwhile show through
+			MappedByteBuffer grown = current.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			synchronized (this) {
+				log = grown;
+				drainPending();
+			}
+			return;
+		}
+		try {
+			compactTo(latest, needed);
+		} finally {
+			synchronized (this) {
+				compacting = false;
+				drainPending();
+			}
+		}
+	}
+
+	/**
+	 * Writes <code>latest</code> to a new file, forces it and moves it over the
+	 * log, then switches to it. Changes are queued meanwhile.
+	 *
+	 * @param headroom free space to leave in the new mapping
+	 */
+	private void compactTo(Map<String, Object> latest, long headroom) throws IOException {
+		Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+		long size = HEADER;
+		for (Map.Entry<String, Object> entry : latest.entrySet()) {
+			size += RECORD_HEADER + 4 + ValueCodec.utf8(entry.getKey()).length
+					+ ValueCodec.sizeOf(entry.getValue(), ValueCodec.utf8(entry.getValue()));
+		}
+		long capacity = Math.max(MIN_CAPACITY, 2 * size + headroom + 4);
+		if (capacity > Integer.MAX_VALUE) {
+			throw new IOException("Property log is full: " + file);
+		}
+		int position = HEADER;
+		try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = out.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			buffer.putInt(0, MAGIC).putInt(4, FORMAT);
+			for (Map.Entry<String, Object> entry : latest.entrySet()) {
+				position = writeRecord(buffer, position, ValueCodec.utf8(entry.getKey()), entry.getValue(),
+						ValueCodec.utf8(entry.getValue()));
+			}
+			buffer.force();
+		}
+		Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		FileChannel reopened = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		MappedByteBuffer mapped = reopened.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		FileChannel replaced;
+		synchronized (this) {
+			replaced = channel;
+			channel = reopened;
+			log = mapped;
+			end = position;
+			records = latest.size();
+			dirty = false;
+		}
+		replaced.close();
+	}
+
+	/**
+	 * Runs on the flush thread, every flush interval and when a change finds the
+	 * mapping getting full.
+	 */
+	private void maintain() {
+		try {
+			boolean compact;
+			synchronized (this) {
+				maintenanceRequested = false;
+				compact = records > 2 * liveNames() + COMPACTION_SLACK;
+			}
+			if (dirty) {
+				flush();
+			}
+			synchronized (maintenance) {
+				makeRoom(compact);
+			}
+		} catch (IOException | RuntimeException e) {
+			logger.error("Property log maintenance failed for " + file + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * A change waiting for room in the log.
+	 */
+	private static final class Pending {
+		final byte[] name;
+		final Object value;
+
+		Pending(byte[] name, Object value) {
+			this.name = name;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Appends the changes of one bound property.
+	 */
+	private final class Binding<T> implements Observer<T> {
+		final String name;
+		final byte[] nameBytes;
+		final DynamicProperty<T> property;
+		Closeable subscription;
+
+		Binding(String name, DynamicProperty<T> property) {
+			this.name = name;
+			this.nameBytes = ValueCodec.utf8(name);
+			this.property = property;
+		}
+
+		@Override
+		public void observe(T value) {
+			append(this, value);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package com.experoinc.javatest;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A sequence lock over the whole property graph, letting readers take a
+ * consistent view of several properties without slowing writers down, unless they
+ * have retried for too long.
+ * <p>
+ * A thread writing properties holds a write section from before its first write
+ * until the calculated properties depending on it have been re-evaluated (see
+ * {@link PropagationScheduler}), so a batch and the wave it triggers form one
+ * section. Every writing thread has a {@link Section} of its own whose sequence
+ * number is odd while it is open, so opening and closing a section only stores
+ * to memory no other writer touches. A reader retries until it read everything
+ * while no section was open and no sequence moved, i.e. no change overlapped its
+ * reads; the cost of checking every writing thread is the reader's.
+ * <p>
+ * A reader spins, then yields, for a bounded number of attempts. After that it
+ * closes a gate that makes writers opening a section wait, parks until the
+ * sections already open are closed, and reads. Blocking writers for the length of
+ * one read is the price of bounding the reader's wait: a versioned read would
+ * avoid it, but would make every write keep the values it replaces. A reader that
+ * holds a section itself, or helps a wave evaluate, must not wait for writers that
+ * may be waiting for it: it keeps retrying instead, parking between attempts.
+ */
+final class SequenceLock {
+
+	/** Attempts before a retrying reader starts yielding. */
+	private static final int SPINS = 64;
+	/** Attempts before a retrying reader blocks writers out. */
+	private static final int ATTEMPTS = 256;
+	/** How long a reader parks while waiting for open sections to close. */
+	private static final long PARK_NANOS = 50000;
+
+	/** The sections of every thread that wrote, copied on write. */
+	private static volatile Section[] sections = new Section[0];
+
+	/** Readers waiting at the gate; writers only check the gate while non-zero. */
+	private static final AtomicInteger BLOCKED = new AtomicInteger();
+	/** Shared by gated writers for the length of their section, exclusive to a blocked reader. */
+	private static final ReentrantReadWriteLock GATE = new ReentrantReadWriteLock();
+
+	private SequenceLock() {
+
+	}
+
+	/**
+	 * The write sections of one thread.
+	 */
+	static final class Section {
+
+		private final WeakReference<Thread> owner;
+		/** Odd while the section is open. Only its owner writes it. */
+		private volatile long sequence;
+		/** Whether the owner holds the gate for its open section. */
+		private boolean gated;
+
+		private Section(Thread owner) {
+			this.owner = new WeakReference<Thread>(owner);
+		}
+
+		boolean isOpen() {
+			return (sequence & 1) != 0;
+		}
+	}
+
+	/**
+	 * Creates the section of the calling thread, dropping those of threads that
+	 * died.
+	 */
+	static synchronized Section register() {
+		Section section = new Section(Thread.currentThread());
+		ArrayList<Section> live = new ArrayList<Section>(sections.length + 1);
+		for (Section existing : sections) {
+			Thread owner = existing.owner.get();
+			if (owner != null && owner.isAlive() || existing.isOpen()) {
+				live.add(existing);
+			}
+		}
+		live.add(section);
+		sections = live.toArray(new Section[live.size()]);
+		return section;
+	}
+
+	/**
+	 * Opens <code>section</code>, first waiting for a blocked reader, if any,
+	 * unless the calling thread is helping a wave that reader may be waiting for.
+	 */
+	static void enter(Section section, boolean helping) {
+		section.sequence = section.sequence + 1;
+		if (BLOCKED.get() != 0 && !helping) {
+			// closed again while waiting, or the reader would wait for this section
+			section.sequence = section.sequence + 1;
+			GATE.readLock().lock();
+			section.gated = true;
+			section.sequence = section.sequence + 1;
+		}
+	}
+
+	static void exit(Section section) {
+		section.sequence = section.sequence + 1;
+		if (section.gated) {
+			section.gated = false;
+			GATE.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Reads the values of <code>properties</code> into <code>values</code>, as they
+	 * all were at one point in time. A thread holding a write section itself sees
+	 * its own writes in progress, and so does a thread helping a wave evaluate.
+	 */
+	static void read(final DynamicProperty<?>[] properties, final Object[] values) {
+		read(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < properties.length; i++) {
+					values[i] = properties[i].getValue();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Runs <code>reads</code> until it ran while no change overlapped it. It must
+	 * only read, and start over from scratch each time.
+	 */
+	static void read(Runnable reads) {
+		Section own = PropagationScheduler.ownSection();
+		Section helped = PropagationScheduler.helpedSection();
+		boolean mayBlock = (own == null || !own.isOpen()) && helped == null;
+		for (int attempt = 0;; attempt++) {
+			if (tryRead(reads, own, helped)) {
+				return;
+			}
+			if (attempt >= ATTEMPTS) {
+				if (mayBlock) {
+					readBlocking(reads);
+					return;
+				}
+				LockSupport.parkNanos(PARK_NANOS);
+			} else if (attempt >= SPINS) {
+				Thread.yield();
+			}
+		}
+	}
+
+	private static void readBlocking(Runnable reads) {
+		BLOCKED.incrementAndGet();
+		GATE.writeLock().lock();
+		try {
+			// no section opens any more; wait for those opened before the gate closed
+			while (!tryRead(reads, null, null)) {
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+		} finally {
+			GATE.writeLock().unlock();
+			BLOCKED.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return true if <code>reads</code> ran while no section other than
+	 *         <code>own</code> and <code>helped</code> was open or closed
+	 */
+	private static boolean tryRead(Runnable reads, Section own, Section helped) {
+		Section[] before = sections;
+		long[] sequences = new long[before.length];
+		for (int i = 0; i < before.length; i++) {
+			Section section = before[i];
+			if (section != own && section != helped) {
+				long sequence = section.sequence;
+				if ((sequence & 1) != 0) {
+					return false;
+				}
+				sequences[i] = sequence;
+			}
+		}
+		reads.run();
+		if (sections != before) {
+			// a thread wrote for the first time, maybe while this one read
+			return false;
+		}
+		for (int i = 0; i < before.length; i++) {
+			Section section = before[i];
+			if (section != own && section != helped && section.sequence != sequences[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,116 @@
+package com.experoinc.javatest;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Subscribers of one property: an append-mostly array with tombstones.
+ * <p>
+ * Every entry remembers its slot, so adding and removing are constant time
+ * (amortized) instead of the linear copy and scan of a copy-on-write set. Removal
+ * leaves a <code>null</code> tombstone; the array is compacted into a fresh copy
+ * when it fills up with tombstones or live entries drop below a quarter of it.
+ * <p>
+ * Notification walks {@link #snapshot()} without locking or allocating. A walk
+ * that races with a compaction keeps going over the previous array, so it may
+ * still see an entry removed meanwhile: entries must tolerate that.
+ *
+ * @param <E>
+ */
+final class SubscriberRegistry<E extends SubscriberRegistry.Entry> {
+
+	/**
+	 * Something that can be registered. The slot is owned by the registry; it is
+	 * only read and written while holding the registry's lock.
+	 */
+	interface Entry {
+		int slot();
+
+		void slot(int slot);
+	}
+
+	static final int NOT_REGISTERED = -1;
+
+	private static final int MIN_CAPACITY = 4;
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceArray EMPTY = new AtomicReferenceArray(0);
+
+	@SuppressWarnings("unchecked")
+	private volatile AtomicReferenceArray<E> slots = EMPTY;
+
+	/** First slot never used since the last compaction. */
+	private int next;
+
+	private volatile int live;
+
+	/**
+	 * Registers <code>entry</code>, which must not be registered anywhere else.
+	 */
+	synchronized void add(E entry) {
+		AtomicReferenceArray<E> current = slots;
+		if (next == current.length()) {
+			current = compact(current, live + 1);
+		}
+		entry.slot(next);
+		current.set(next++, entry);
+		live++;
+	}
+
+	/**
+	 * Unregisters <code>entry</code>.
+	 *
+	 * @return false if it was not registered, e.g. because it was already removed
+	 */
+	synchronized boolean remove(E entry) {
+		int slot = entry.slot();
+		if (slot == NOT_REGISTERED) {
+			return false;
+		}
+		AtomicReferenceArray<E> current = slots;
+		current.set(slot, null);
+		entry.slot(NOT_REGISTERED);
+		live--;
+		if (live < next >>> 2 && current.length() > MIN_CAPACITY) {
+			compact(current, live);
+		}
+		return true;
+	}
+
+	boolean isEmpty() {
+		return live == 0;
+	}
+
+	int size() {
+		return live;
+	}
+
+	/**
+	 * The current slot array, for lock-free iteration. Skip <code>null</code> slots.
+	 */
+	AtomicReferenceArray<E> snapshot() {
+		return slots;
+	}
+
+	/**
+	 * Copies the live entries to the front of a new array with room for at least
+	 * <code>required</code> entries, and publishes it.
+	 */
+	private AtomicReferenceArray<E> compact(AtomicReferenceArray<E> current, int required) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < required * 2) {
+			capacity <<= 1;
+		}
+		AtomicReferenceArray<E> compacted = new AtomicReferenceArray<E>(capacity);
+		int moved = 0;
+		for (int i = 0; i < next; i++) {
+			E entry = current.get(i);
+			if (entry != null) {
+				entry.slot(moved);
+				compacted.set(moved++, entry);
+			}
+		}
+		next = moved;
+		slots = compacted;
+		return compacted;
+	}
+}
@@ -0,0 +1,91 @@
+package com.experoinc.javatest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opt-in recording of change waves, and detection of slow evaluations.
+ * <p>
+ * While enabled, each wave is recorded as a {@link PropagationTrace} by the thread
+ * running it and published to a ring buffer holding the latest {@link #CAPACITY}
+ * waves. Publishing is a single atomic increment and store: threads never wait for
+ * each other, and a slow reader never holds up writers.
+ * <p>
+ * Independently, any evaluation of a calculated property taking longer than the
+ * configured budget is logged as a warning.
+ */
+final class Tracing {
+
+	private static final Logger logger = LoggerFactory.getLogger(DynamicProperty.class);
+
+	/** Waves kept in the ring buffer; a power of two. */
+	static final int CAPACITY = 256;
+
+	static volatile boolean enabled;
+
+	/** Evaluations taking longer are logged; 0 to never log. */
+	static volatile long slowEvaluationNanos;
+
+	private static final AtomicReferenceArray<PropagationTrace> RING = new AtomicReferenceArray<PropagationTrace>(CAPACITY);
+	private static final AtomicLong PUBLISHED = new AtomicLong();
+
+	private Tracing() {
+
+	}
+
+	static void publish(PropagationTrace trace) {
+		trace.finish();
+		RING.set((int) (PUBLISHED.getAndIncrement() & (CAPACITY - 1)), trace);
+	}
+
+	/**
+	 * @return the waves in the ring buffer, latest first
+	 */
+	static List<PropagationTrace> recent() {
+		ArrayList<PropagationTrace> traces = new ArrayList<PropagationTrace>(CAPACITY);
+		for (int i = 0; i < CAPACITY; i++) {
+			PropagationTrace trace = RING.get(i);
+			if (trace != null) {
+				traces.add(trace);
+			}
+		}
+		// slots are claimed in order but may be filled out of order
+		Collections.sort(traces, new Comparator<PropagationTrace>() {
+			@Override
+			public int compare(PropagationTrace a, PropagationTrace b) {
+				return Long.compare(b.wave(), a.wave());
+			}
+		});
+		return traces;
+	}
+
+	static void clear() {
+		for (int i = 0; i < CAPACITY; i++) {
+			RING.set(i, null);
+		}
+	}
+
+	/**
+	 * Logs an evaluation of <code>property</code> that took <code>nanos</code>, if
+	 * that is over budget. The property is identified as by
+	 * {@link Object#toString()} rather than named: finding its name means scanning
+	 * the registry, on the writing thread of a wave that is already slow.
+	 */
+	static void evaluated(CalculatedDynamicProperty<?> property, long nanos) {
+		long budget = slowEvaluationNanos;
+		if (budget > 0 && nanos > budget && logger.isWarnEnabled()) {
+			logger.warn("Slow evaluation of calculated property " + property.getClass().getName() + "@"
+					+ Integer.toHexString(System.identityHashCode(property)) + ": "
+					+ TimeUnit.NANOSECONDS.toMicros(nanos) + " us, budget " + TimeUnit.NANOSECONDS.toMicros(budget)
+					+ " us");
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package com.experoinc.javatest;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary encoding of the property values that can be persisted or exported: a tag
+ * byte followed by the value, big-endian. Strings are a length and their UTF-8
+ * bytes.
+ */
+final class ValueCodec {
+
+	static final byte NULL = 0;
+	static final byte STRING = 1;
+	static final byte INT = 2;
+	static final byte LONG = 3;
+	static final byte DOUBLE = 4;
+	static final byte BOOLEAN = 5;
+
+	private ValueCodec() {
+
+	}
+
+	/**
+	 * @return whether values of this class can be encoded
+	 */
+	static boolean isSupported(Object value) {
+		return value == null || value instanceof String || value instanceof Integer || value instanceof Long
+				|| value instanceof Double || value instanceof Boolean;
+	}
+
+	/**
+	 * @return the encoded size of <code>value</code>, a string's UTF-8 bytes aside
+	 */
+	static int sizeOf(Object value, byte[] utf8) {
+		if (value == null) {
+			return 1;
+		} else if (value instanceof String) {
+			return 1 + 4 + utf8.length;
+		} else if (value instanceof Integer) {
+			return 1 + 4;
+		} else if (value instanceof Long || value instanceof Double) {
+			return 1 + 8;
+		} else {
+			return 1 + 1;
+		}
+	}
+
+	/**
+	 * @return the UTF-8 bytes of a string value, or null for any other value
+	 */
+	static byte[] utf8(Object value) {
+		return value instanceof String ? ((String) value).getBytes(StandardCharsets.UTF_8) : null;
+	}
+
+	/**
+	 * Writes <code>value</code>, whose UTF-8 bytes are <code>utf8</code> if it is a string.
+	 *
+	 * @throws IllegalArgumentException if the type of <code>value</code> is not supported
+	 */
+	static void write(ByteBuffer out, Object value, byte[] utf8) {
+		if (value == null) {
+			out.put(NULL);
+		} else if (value instanceof String) {
+			out.put(STRING).putInt(utf8.length).put(utf8);
+		} else if (value instanceof Integer) {
+			out.put(INT).putInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.put(LONG).putLong((Long) value);
+		} else if (value instanceof Double) {
+			out.put(DOUBLE).putDouble((Double) value);
+		} else if (value instanceof Boolean) {
+			out.put(BOOLEAN).put((byte) ((Boolean) value ? 1 : 0));
+		} else {
+			throw new IllegalArgumentException("Unsupported value type " + value.getClass().getName());
+		}
+	}
+
+	/**
+	 * Reads a value written by {@link #write(ByteBuffer, Object, byte[])}.
+	 *
+	 * @throws IllegalArgumentException if the tag is unknown
+	 */
+	static Object read(ByteBuffer in) {
+		byte tag = in.get();
+		switch (tag) {
+		case NULL:
+			return null;
+		case STRING:
+			return readString(in);
+		case INT:
+			return in.getInt();
+		case LONG:
+			return in.getLong();
+		case DOUBLE:
+			return in.getDouble();
+		case BOOLEAN:
+			return in.get() != 0;
+		default:
+			throw new IllegalArgumentException("Unknown value tag " + tag);
+		}
+	}
+
+	/**
+	 * Moves past a value written by {@link #write(ByteBuffer, Object, byte[])}
+	 * without decoding it.
+	 *
+	 * @throws IllegalArgumentException if the tag is unknown
+	 */
+	static void skip(ByteBuffer in) {
+		byte tag = in.get();
+		int length;
+		switch (tag) {
+		case NULL:
+			length = 0;
+			break;
+		case STRING:
+			length = in.getInt();
+			if (length < 0) {
+				throw new IllegalArgumentException("Invalid string length " + length);
+			}
+			break;
+		case INT:
+			length = 4;
+			break;
+		case LONG:
+		case DOUBLE:
+			length = 8;
+			break;
+		case BOOLEAN:
+			length = 1;
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown value tag " + tag);
+		}
+		((Buffer) in).position(in.position() + length);
+	}
+
+	/**
+	 * Reads a length-prefixed UTF-8 string, decoding it straight from the buffer's
+	 * backing array when it has one.
+	 */
+	static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		if (length < 0 || length > in.remaining()) {
+			throw new IllegalArgumentException("Invalid string length " + length);
+		}
+		if (!in.hasArray()) {
+			byte[] bytes = new byte[length];
+			in.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+		String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+		// through Buffer, whose position(int) also exists on Java 8
+		((Buffer) in).position(in.position() + length);
+		return value;
+	}
+
+	static void writeString(ByteBuffer out, byte[] utf8) {
+		out.putInt(utf8.length).put(utf8);
+	}
+}
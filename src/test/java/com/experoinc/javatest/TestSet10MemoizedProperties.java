@@ -0,0 +1,101 @@
+package com.experoinc.javatest;
+
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/// Tests that memoized calculated properties reuse results for dependency values seen before.
+public class TestSet10MemoizedProperties {
+
+  @Test
+  public void togglingBetweenDependenciesReusesEarlierResults() {
+    final DynamicProperty<Integer> which = DynamicPropertyFactory.create(0);
+    final DynamicProperty<String> first = DynamicPropertyFactory.create("a");
+    final DynamicProperty<String> second = DynamicPropertyFactory.create("b");
+    final int[] evalCount = new int[]{0};
+    DynamicProperty<String> selected = DynamicPropertyFactory.createMemoized(
+      new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          evalCount[0]++;
+          return which.getValue() == 0 ? first.getValue() : second.getValue();
+        }
+      },
+      new Observer<String>() {
+        @Override
+        public void observe(String value) { /* noop */ }
+      }, 4);
+    Assert.assertEquals(1, evalCount[0]);
+
+    which.setValue(1);
+    Assert.assertEquals("b", selected.getValue());
+    which.setValue(0);
+    which.setValue(1);
+    which.setValue(0);
+    Assert.assertEquals("a", selected.getValue());
+    Assert.assertEquals(2, evalCount[0]);
+
+    // a hit still re-captures the dependencies of the result it reused
+    second.setValue("c");
+    Assert.assertEquals(2, evalCount[0]);
+    first.setValue("d");
+    Assert.assertEquals(3, evalCount[0]);
+    Assert.assertEquals("d", selected.getValue());
+  }
+
+  @Test
+  public void leastRecentlyUsedResultIsEvicted() {
+    final DynamicProperty<Integer> input = DynamicPropertyFactory.create(0);
+    final int[] evalCount = new int[]{0};
+    DynamicProperty<Integer> squared = DynamicPropertyFactory.createMemoized(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          evalCount[0]++;
+          return input.getValue() * input.getValue();
+        }
+      },
+      new Observer<Integer>() {
+        @Override
+        public void observe(Integer value) { /* noop */ }
+      }, 2);
+
+    input.setValue(1);
+    input.setValue(0);
+    Assert.assertEquals(2, evalCount[0]);
+    input.setValue(2);
+    Assert.assertEquals(3, evalCount[0]);
+    // 1 was evicted, 0 and 2 are still cached
+    input.setValue(0);
+    input.setValue(2);
+    Assert.assertEquals(3, evalCount[0]);
+    input.setValue(1);
+    Assert.assertEquals(4, evalCount[0]);
+    Assert.assertEquals(1, (int) squared.getValue());
+  }
+
+  @Test
+  public void primitiveDependencyValuesAreMemoizedToo() {
+    final IntDynamicProperty input = DynamicPropertyFactory.createInt(3);
+    final int[] evalCount = new int[]{0};
+    DynamicProperty<Integer> doubled = DynamicPropertyFactory.createMemoized(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          evalCount[0]++;
+          return input.getInt() * 2;
+        }
+      },
+      new Observer<Integer>() {
+        @Override
+        public void observe(Integer value) { /* noop */ }
+      }, 8);
+
+    for (int i = 0; i < 10; ++i) {
+      input.setInt(i % 2 == 0 ? 4 : 3);
+    }
+    Assert.assertEquals(2, evalCount[0]);
+    Assert.assertEquals(6, (int) doubled.getValue());
+  }
+}
@@ -0,0 +1,80 @@
+package com.experoinc.javatest;
+
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/// Tests that property versions grow with every change and follow the global logical clock.
+public class TestSet11Versions {
+
+  @Test
+  public void versionOnlyChangesWithTheValue() {
+    DynamicProperty<String> p = DynamicPropertyFactory.create("a");
+    long initial = p.getVersion();
+
+    p.setValue("a");
+    Assert.assertEquals(initial, p.getVersion());
+    p.setValue("b");
+    long changed = p.getVersion();
+    Assert.assertTrue(changed > initial);
+    Assert.assertTrue(changed <= DynamicPropertyFactory.currentVersion());
+    p.setValue("c");
+    Assert.assertTrue(p.getVersion() > changed);
+  }
+
+  @Test
+  public void versionsAreOrderedAcrossProperties() {
+    long before = DynamicPropertyFactory.currentVersion();
+    IntDynamicProperty first = DynamicPropertyFactory.createInt(0);
+    DynamicProperty<Integer> second = DynamicPropertyFactory.create(0);
+
+    first.setInt(1);
+    second.setValue(1);
+    Assert.assertTrue(first.getVersion() > before);
+    Assert.assertTrue(second.getVersion() > first.getVersion());
+  }
+
+  @Test
+  public void calculatedVersionFollowsItsValue() {
+    final DynamicProperty<Integer> input = DynamicPropertyFactory.create(1);
+    DynamicProperty<Boolean> positive = DynamicPropertyFactory.create(
+      new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          return input.getValue() > 0;
+        }
+      },
+      new Observer<Boolean>() {
+        @Override
+        public void observe(Boolean value) { /* noop */ }
+      });
+    long initial = positive.getVersion();
+
+    input.setValue(2);
+    Assert.assertEquals(initial, positive.getVersion());
+    input.setValue(-1);
+    Assert.assertTrue(positive.getVersion() > input.getVersion());
+  }
+
+  @Test
+  public void lazyPropertyIsBroughtUpToDateBeforeReadingItsVersion() {
+    final DynamicProperty<Integer> input = DynamicPropertyFactory.create(1);
+    DynamicProperty<Integer> lazy = DynamicPropertyFactory.createLazy(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return input.getValue() + 1;
+        }
+      },
+      new Observer<Integer>() {
+        @Override
+        public void observe(Integer value) { /* noop */ }
+      });
+    long initial = lazy.getVersion();
+
+    input.setValue(5);
+    Assert.assertTrue(lazy.getVersion() > initial);
+    Assert.assertEquals(6, (int) lazy.getValue());
+  }
+}
@@ -0,0 +1,124 @@
+package com.experoinc.javatest;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/// Tests that snapshots never observe a batch or a change wave half applied.
+public class TestSet12Snapshots {
+
+  @Test
+  public void snapshotIsImmutable() {
+    DynamicProperty<String> p = DynamicPropertyFactory.create("a");
+    IntDynamicProperty q = DynamicPropertyFactory.createInt(1);
+    PropertySnapshot snapshot = DynamicPropertyFactory.snapshot(p, q);
+
+    p.setValue("b");
+    q.setInt(2);
+    Assert.assertEquals("a", snapshot.get(p));
+    Assert.assertEquals(1, (int) snapshot.get(q));
+    Assert.assertEquals(2, snapshot.size());
+    Assert.assertFalse(snapshot.contains(DynamicPropertyFactory.create("a")));
+  }
+
+  @Test
+  public void snapshotsNeverSeeATornBatchOrAHalfPropagatedWave() throws InterruptedException {
+    final DynamicProperty<Integer> a = DynamicPropertyFactory.create(0);
+    final DynamicProperty<Integer> b = DynamicPropertyFactory.create(0);
+    final DynamicProperty<Integer> sum = DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return a.getValue() + b.getValue();
+        }
+      },
+      new Observer<Integer>() {
+        @Override
+        public void observe(Integer value) { /* noop */ }
+      });
+    final AtomicBoolean done = new AtomicBoolean();
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 1; i <= 20000; ++i) {
+          final int value = i;
+          DynamicPropertyFactory.runInBatch(new Runnable() {
+            @Override
+            public void run() {
+              a.setValue(value);
+              b.setValue(value);
+            }
+          });
+        }
+        done.set(true);
+      }
+    });
+    writer.start();
+
+    int snapshots = 0;
+    while (!done.get()) {
+      PropertySnapshot snapshot = DynamicPropertyFactory.snapshot(a, b, sum);
+      int first = snapshot.get(a);
+      Assert.assertEquals(first, (int) snapshot.get(b));
+      Assert.assertEquals(2 * first, (int) snapshot.get(sum));
+      snapshots++;
+    }
+    writer.join();
+    Assert.assertTrue(snapshots > 0);
+  }
+
+  @Test(timeout = 30000)
+  public void snapshotsCompleteUnderWritesThatNeverPause() throws InterruptedException {
+    final DynamicProperty<Integer> a = DynamicPropertyFactory.create(0);
+    final DynamicProperty<Integer> b = DynamicPropertyFactory.create(0);
+    final AtomicBoolean done = new AtomicBoolean();
+    Thread[] writers = new Thread[3];
+    for (int w = 0; w < writers.length; ++w) {
+      writers[w] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; !done.get(); ++i) {
+            final int value = i;
+            DynamicPropertyFactory.runInBatch(new Runnable() {
+              @Override
+              public void run() {
+                a.setValue(value);
+                Thread.yield();
+                b.setValue(value);
+              }
+            });
+          }
+        }
+      });
+      writers[w].start();
+    }
+
+    try {
+      for (int i = 0; i < 200; ++i) {
+        PropertySnapshot snapshot = DynamicPropertyFactory.snapshot(a, b);
+        Assert.assertEquals(snapshot.get(a), snapshot.get(b));
+      }
+    } finally {
+      done.set(true);
+      for (Thread writer : writers) {
+        writer.join();
+      }
+    }
+  }
+
+  @Test
+  public void snapshotTakenInsideABatchSeesItsOwnWrites() {
+    final DynamicProperty<Integer> a = DynamicPropertyFactory.create(0);
+    final PropertySnapshot[] snapshot = new PropertySnapshot[1];
+    DynamicPropertyFactory.runInBatch(new Runnable() {
+      @Override
+      public void run() {
+        a.setValue(1);
+        snapshot[0] = DynamicPropertyFactory.snapshot(a);
+      }
+    });
+    Assert.assertEquals(1, (int) snapshot[0].get(a));
+  }
+}
@@ -0,0 +1,116 @@
+package com.experoinc.javatest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/// Tests lookup, creation and hierarchical iteration of named properties.
+public class TestSet13Registry {
+
+  @Test
+  public void getOrCreateReturnsTheRegisteredProperty() {
+    PropertyRegistry registry = new PropertyRegistry();
+    DynamicProperty<Integer> port = registry.getOrCreate("server.port", 8080);
+    port.setValue(9090);
+
+    Assert.assertSame(port, registry.getOrCreate("server.port", 1));
+    Assert.assertEquals(9090, (int) registry.<Integer>find("server.port").getValue());
+    Assert.assertNull(registry.find("server.host"));
+  }
+
+  @Test
+  public void racingCreatorsShareOneProperty() throws InterruptedException {
+    final PropertyRegistry registry = new PropertyRegistry();
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReferenceArray<DynamicProperty<String>> created = new AtomicReferenceArray<DynamicProperty<String>>(8);
+    Thread[] threads = new Thread[created.length()];
+    for (int i = 0; i < threads.length; ++i) {
+      final int id = i;
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          created.set(id, registry.getOrCreate("shared", "value " + id));
+        }
+      });
+      threads[i].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (int i = 1; i < created.length(); ++i) {
+      Assert.assertSame(created.get(0), created.get(i));
+    }
+    Assert.assertEquals(1, registry.size());
+  }
+
+  @Test
+  public void childrenAndPrefixesAreSortedRanges() {
+    PropertyRegistry registry = new PropertyRegistry();
+    for (String name : new String[]{"serverless.enabled", "server.port", "server", "server.http.port", "client.port"}) {
+      registry.getOrCreate(name, name);
+    }
+
+    Assert.assertEquals(Arrays.asList("server.http.port", "server.port"), new ArrayList<String>(registry.children("server").keySet()));
+    Assert.assertEquals(Arrays.asList("server", "server.http.port", "server.port", "serverless.enabled"),
+      new ArrayList<String>(registry.withPrefix("server").keySet()));
+    Assert.assertEquals(5, registry.all().size());
+    Assert.assertTrue(registry.children("client.port").isEmpty());
+  }
+
+  @Test
+  public void registeredCalculatedPropertyIsFoundByName() {
+    PropertyRegistry registry = new PropertyRegistry();
+    final DynamicProperty<Integer> port = registry.getOrCreate("server.port", 80);
+    registry.register("server.url", DynamicPropertyFactory.create(
+      new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          return "http://localhost:" + port.getValue();
+        }
+      },
+      new Observer<String>() {
+        @Override
+        public void observe(String value) { /* noop */ }
+      }));
+
+    port.setValue(8080);
+    Assert.assertEquals("http://localhost:8080", registry.<String>find("server.url").getValue());
+    try {
+      registry.register("server.port", DynamicPropertyFactory.create(1));
+      Assert.fail();
+    } catch (IllegalArgumentException expected) {
+      // name taken
+    }
+    registry.remove("server.url");
+    Assert.assertNull(registry.find("server.url"));
+  }
+
+  @Test
+  public void removedNamesDisappearFromLiveViews() {
+    PropertyRegistry registry = new PropertyRegistry();
+    List<String> names = new ArrayList<String>();
+    for (int i = 0; i < 1000; ++i) {
+      names.add("node." + i);
+      registry.getOrCreate("node." + i, i);
+    }
+    NavigableMap<String, DynamicProperty<?>> nodes = registry.children("node");
+    Assert.assertEquals(1000, nodes.size());
+    for (String name : names.subList(0, 500)) {
+      registry.remove(name);
+    }
+    Assert.assertEquals(500, nodes.size());
+  }
+}
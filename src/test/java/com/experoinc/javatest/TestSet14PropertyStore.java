@@ -0,0 +1,138 @@
+package com.experoinc.javatest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/// Tests that bound properties survive a restart through the memory-mapped log.
+public class TestSet14PropertyStore {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void boundPropertiesAreRestoredAfterReopening() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("properties.log");
+    PropertyStore store = PropertyStore.open(file, new PropertyRegistry());
+    DynamicProperty<Integer> port = store.bind("server.port", 80);
+    DynamicProperty<String> host = store.bind("server.host", "localhost");
+    DynamicProperty<Double> ratio = store.bind("cache.ratio", 0.5);
+    port.setValue(8080);
+    host.setValue("example.com");
+    host.setValue(null);
+    ratio.setValue(0.75);
+    store.close();
+
+    PropertyRegistry registry = new PropertyRegistry();
+    PropertyStore reopened = PropertyStore.open(file, registry);
+    Assert.assertEquals(3, reopened.restoreAll());
+    Assert.assertEquals(8080, (int) registry.<Integer>find("server.port").getValue());
+    Assert.assertNull(registry.find("server.host").getValue());
+    Assert.assertEquals(0.75, registry.<Double>find("cache.ratio").getValue(), 0.0);
+    reopened.close();
+  }
+
+  @Test
+  public void tornLastRecordIsDiscarded() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("properties.log");
+    PropertyStore store = PropertyStore.open(file, new PropertyRegistry());
+    DynamicProperty<String> name = store.bind("name", "first");
+    name.setValue("second");
+    store.close();
+
+    // corrupt the last byte of the last record, as a crash in the middle of it would
+    File log = file.toFile();
+    long lastRecordEnd = lastNonZeroOffset(log);
+    try (RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+      raf.seek(lastRecordEnd);
+      int last = raf.read();
+      raf.seek(lastRecordEnd);
+      raf.write(last ^ 0xff);
+    }
+
+    PropertyStore reopened = PropertyStore.open(file, new PropertyRegistry());
+    Assert.assertEquals("first", reopened.persistedValue("name"));
+    // appending after the torn record keeps the log readable
+    reopened.bind("name", "").setValue("third");
+    reopened.close();
+    PropertyStore again = PropertyStore.open(file, new PropertyRegistry());
+    Assert.assertEquals("third", again.persistedValue("name"));
+    again.close();
+  }
+
+  @Test
+  public void compactionKeepsOnlyTheLatestValues() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("properties.log");
+    PropertyStore store = PropertyStore.open(file, new PropertyRegistry());
+    DynamicProperty<Long> counter = store.bind("counter", 0L);
+    store.bind("untouched", true);
+    for (long i = 1; i <= 100000; ++i) {
+      counter.setValue(i);
+    }
+    Assert.assertTrue(store.records() < 100000);
+    store.compact();
+    Assert.assertEquals(2, store.records());
+    counter.setValue(-1L);
+    store.close();
+
+    PropertyRegistry registry = new PropertyRegistry();
+    PropertyStore reopened = PropertyStore.open(file, registry);
+    Assert.assertEquals(-1L, (long) reopened.bind("counter", 0L).getValue());
+    Assert.assertEquals(Boolean.TRUE, reopened.persistedValue("untouched"));
+    reopened.close();
+  }
+
+  @Test
+  public void changesOutgrowingTheMappingAreKept() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("properties.log");
+    PropertyStore store = PropertyStore.open(file, new PropertyRegistry());
+    ArrayList<DynamicProperty<String>> properties = new ArrayList<DynamicProperty<String>>();
+    for (int i = 0; i < 3000; ++i) {
+      properties.add(store.bind("name." + i, ""));
+    }
+    for (int round = 0; round < 3; ++round) {
+      for (int i = 0; i < properties.size(); ++i) {
+        properties.get(i).setValue("a value long enough to fill the log quickly " + round + "/" + i);
+      }
+    }
+    store.close();
+
+    PropertyStore reopened = PropertyStore.open(file, new PropertyRegistry());
+    for (int i = 0; i < properties.size(); ++i) {
+      Assert.assertEquals("a value long enough to fill the log quickly 2/" + i, reopened.persistedValue("name." + i));
+    }
+    reopened.close();
+  }
+
+  @Test
+  public void unsupportedTypesAreRejected() throws IOException {
+    PropertyStore store = PropertyStore.open(folder.getRoot().toPath().resolve("properties.log"), new PropertyRegistry());
+    try {
+      store.bind("list", new ArrayList<String>());
+      Assert.fail();
+    } catch (IllegalArgumentException expected) {
+      // only scalar values can be persisted
+    } finally {
+      store.close();
+    }
+  }
+
+  private static long lastNonZeroOffset(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      long last = -1;
+      for (long i = 0; i < raf.length(); ++i) {
+        if (raf.read() != 0) {
+          last = i;
+        }
+      }
+      return last;
+    }
+  }
+}
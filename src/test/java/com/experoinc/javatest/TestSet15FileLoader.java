@@ -0,0 +1,159 @@
+package com.experoinc.javatest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/// Tests that config files load into typed properties and reloads only touch changed keys.
+public class TestSet15FileLoader {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void formatsAreFlattenedToTypedProperties() throws IOException {
+    PropertyRegistry registry = new PropertyRegistry();
+    PropertyFileLoader loader = new PropertyFileLoader(registry);
+    loader.load(write("app.properties", "server.port=8080\nserver.name = main\n# comment\nratio: 0.5\n"));
+    loader.load(write("app.yaml",
+      "cache:\n  size: 10000000000  # a long\n  enabled: true\n  label: 'a: b'\nhosts:\n  - alpha\n  - \"beta\"\n"));
+    loader.load(write("app.json",
+      "{\"db\": {\"pool\": 4, \"url\": \"jdbc:x\\n\", \"timeout\": 1.5, \"replicas\": [\"r1\", \"r2\"], \"user\": null}}"));
+
+    Assert.assertEquals(8080, registry.find("server.port").getValue());
+    Assert.assertEquals("main", registry.find("server.name").getValue());
+    Assert.assertEquals(0.5, registry.find("ratio").getValue());
+    Assert.assertEquals(10000000000L, registry.find("cache.size").getValue());
+    Assert.assertEquals(Boolean.TRUE, registry.find("cache.enabled").getValue());
+    Assert.assertEquals("a: b", registry.find("cache.label").getValue());
+    Assert.assertEquals("beta", registry.find("hosts.1").getValue());
+    Assert.assertEquals(4, registry.find("db.pool").getValue());
+    Assert.assertEquals("jdbc:x\n", registry.find("db.url").getValue());
+    Assert.assertEquals(1.5, registry.find("db.timeout").getValue());
+    Assert.assertEquals("r2", registry.find("db.replicas.1").getValue());
+    Assert.assertNull(registry.find("db.user").getValue());
+  }
+
+  @Test
+  public void indentlessSequenceItemsBelongToTheirKey() throws IOException {
+    PropertyRegistry registry = new PropertyRegistry();
+    new PropertyFileLoader(registry).load(write("indentless.yaml",
+      "server:\n  hosts:\n  - a\n  - b\n  port: 80\nzones:\n- east\nname: x\n"));
+
+    Assert.assertEquals("a", registry.find("server.hosts.0").getValue());
+    Assert.assertEquals("b", registry.find("server.hosts.1").getValue());
+    Assert.assertEquals(80, registry.find("server.port").getValue());
+    Assert.assertEquals("east", registry.find("zones.0").getValue());
+    Assert.assertEquals("x", registry.find("name").getValue());
+    Assert.assertNull(registry.find("server.0"));
+  }
+
+  @Test
+  public void valuesAreConvertedToTheTypeOfExistingProperties() throws IOException {
+    PropertyRegistry registry = new PropertyRegistry();
+    DynamicProperty<String> zip = registry.getOrCreate("zip", "none");
+    DynamicProperty<Long> limit = registry.getOrCreate("limit", 0L);
+    DynamicProperty<Integer> count = registry.getOrCreate("count", 1);
+    new PropertyFileLoader(registry).load(write("app.properties", "zip=01234\nlimit=7\ncount=many\n"));
+
+    Assert.assertEquals("01234", zip.getValue());
+    Assert.assertEquals(7L, (long) limit.getValue());
+    Assert.assertEquals(1, (int) count.getValue());
+  }
+
+  @Test
+  public void keyThatCouldNotBeAppliedIsRetriedOnReload() throws IOException {
+    PropertyRegistry registry = new PropertyRegistry();
+    registry.getOrCreate("count", 1);
+    PropertyFileLoader loader = new PropertyFileLoader(registry);
+    Path file = write("retry.properties", "count=many\nname=x\n");
+    Assert.assertEquals(1, loader.load(file));
+
+    registry.remove("count");
+    Assert.assertEquals(1, loader.load(file));
+    Assert.assertEquals("many", registry.find("count").getValue());
+    Assert.assertEquals(0, loader.load(file));
+  }
+
+  @Test
+  public void reloadOnlyWritesChangedKeysInOneBatch() throws IOException {
+    PropertyRegistry registry = new PropertyRegistry();
+    PropertyFileLoader loader = new PropertyFileLoader(registry);
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 1000; ++i) {
+      content.append("key").append(i).append('=').append(i).append('\n');
+    }
+    Path file = write("big.properties", content.toString());
+    Assert.assertEquals(1000, loader.load(file));
+
+    final DynamicProperty<Integer> first = registry.find("key1");
+    final DynamicProperty<Integer> second = registry.find("key2");
+    final AtomicInteger otherNotifications = new AtomicInteger();
+    registry.<Integer>find("key3").subscribe(new Observer<Integer>() {
+      @Override
+      public void observe(Integer value) {
+        otherNotifications.incrementAndGet();
+      }
+    });
+    final int[] seen = new int[2];
+    first.subscribe(new Observer<Integer>() {
+      @Override
+      public void observe(Integer value) {
+        // the batch applies both keys before anyone is notified
+        seen[0] = value;
+        seen[1] = second.getValue();
+      }
+    });
+
+    Files.write(file, content.toString().replace("key1=1\n", "key1=-1\n").replace("key2=2\n", "key2=-2\n")
+      .getBytes(StandardCharsets.UTF_8));
+    Assert.assertEquals(2, loader.load(file));
+    Assert.assertArrayEquals(new int[] { -1, -2 }, seen);
+    Assert.assertEquals(0, otherNotifications.get());
+    Assert.assertEquals(0, loader.load(file));
+  }
+
+  @Test
+  public void invalidFileChangesNothing() throws IOException {
+    PropertyRegistry registry = new PropertyRegistry();
+    PropertyFileLoader loader = new PropertyFileLoader(registry);
+    try {
+      loader.load(write("broken.json", "{\"a\": 1, \"b\": }"));
+      Assert.fail();
+    } catch (IOException e) {
+      // expected
+    }
+    Assert.assertNull(registry.find("a"));
+  }
+
+  @Test
+  public void watchedFileIsReloadedWhenModified() throws Exception {
+    PropertyRegistry registry = new PropertyRegistry();
+    PropertyFileLoader loader = new PropertyFileLoader(registry);
+    Path file = write("watched.yaml", "timeout: 10\n");
+    loader.watch(file);
+    DynamicProperty<Integer> timeout = registry.find("timeout");
+    Assert.assertEquals(10, (int) timeout.getValue());
+
+    Files.write(file, "timeout: 20\n".getBytes(StandardCharsets.UTF_8));
+    long deadline = System.currentTimeMillis() + 30000;
+    while (timeout.getValue() != 20 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    loader.close();
+    Assert.assertEquals(20, (int) timeout.getValue());
+  }
+
+  private Path write(String name, String content) throws IOException {
+    Path file = folder.getRoot().toPath().resolve(name);
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+}
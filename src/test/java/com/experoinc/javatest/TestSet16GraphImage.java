@@ -0,0 +1,105 @@
+package com.experoinc.javatest;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/// Tests that a property graph exported to bytes reads back with its values, versions and edges.
+public class TestSet16GraphImage {
+
+  private static final Observer<Integer> NOOP = new Observer<Integer>() {
+    @Override
+    public void observe(Integer value) { /* noop */ }
+  };
+
+  @Test
+  public void exportedGraphReadsBack() {
+    PropertyRegistry registry = new PropertyRegistry();
+    final DynamicProperty<Integer> a = registry.getOrCreate("a", 1);
+    registry.getOrCreate("label", "héllo");
+    registry.getOrCreate("ratio", 0.5);
+    registry.getOrCreate("unset", null);
+    registry.getOrCreate("opaque", new StringBuilder("x"));
+    final DynamicProperty<Integer> hidden = DynamicPropertyFactory.create(10);
+    DynamicProperty<Integer> sum = registry.register("sum", DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return a.getValue() + hidden.getValue();
+        }
+      }, NOOP));
+
+    PropertyGraphImage image = PropertyGraphImage.read(DynamicPropertyFactory.exportGraph(registry));
+    Assert.assertEquals(7, image.size());
+    int ai = image.indexOf("a");
+    int si = image.indexOf("sum");
+    Assert.assertEquals(1, image.value(ai));
+    Assert.assertEquals(a.getVersion(), image.version(ai));
+    Assert.assertEquals("héllo", image.value(image.indexOf("label")));
+    Assert.assertEquals(0.5, image.value(image.indexOf("ratio")));
+    Assert.assertNull(image.value(image.indexOf("unset")));
+    Assert.assertTrue(image.hasValue(image.indexOf("unset")));
+    Assert.assertFalse(image.hasValue(image.indexOf("opaque")));
+    Assert.assertEquals(-1, image.indexOf("missing"));
+
+    Assert.assertTrue(image.isCalculated(si));
+    Assert.assertEquals(11, image.value(si));
+    Assert.assertEquals(sum.getVersion(), image.version(si));
+    int[] dependencies = image.dependencies(si);
+    Assert.assertEquals(2, dependencies.length);
+    Assert.assertEquals(ai, dependencies[0]);
+    Assert.assertNull(image.name(dependencies[1]));
+    Assert.assertEquals(10, image.value(dependencies[1]));
+    Assert.assertTrue(image.clock() >= sum.getVersion());
+  }
+
+  @Test
+  public void importSetsPlainPropertiesAndAdvancesVersions() {
+    PropertyRegistry source = new PropertyRegistry();
+    source.getOrCreate("port", 8080);
+    source.getOrCreate("host", "example.com");
+    source.getOrCreate("count", 3L);
+    ByteBuffer bytes = DynamicPropertyFactory.exportGraph(source);
+
+    PropertyRegistry target = new PropertyRegistry();
+    DynamicProperty<Integer> port = target.getOrCreate("port", 80);
+    DynamicProperty<String> count = target.getOrCreate("count", "three");
+    PropertyGraphImage image = PropertyGraphImage.read(bytes);
+    Assert.assertEquals(2, image.applyTo(target));
+
+    Assert.assertEquals(8080, (int) port.getValue());
+    Assert.assertTrue(port.getVersion() > image.clock());
+    Assert.assertEquals("example.com", target.find("host").getValue());
+    Assert.assertEquals("three", count.getValue());
+  }
+
+  @Test
+  public void readsFromTheMiddleOfADirectBuffer() {
+    PropertyRegistry source = new PropertyRegistry();
+    source.getOrCreate("name", "value");
+    ByteBuffer bytes = DynamicPropertyFactory.exportGraph(source);
+    ByteBuffer direct = ByteBuffer.allocateDirect(bytes.remaining() + 3);
+    direct.put(new byte[3]).put(bytes).flip();
+    direct.position(3);
+
+    PropertyGraphImage image = PropertyGraphImage.read(direct);
+    Assert.assertEquals(3, direct.position());
+    Assert.assertEquals("value", image.value(image.indexOf("name")));
+  }
+
+  @Test
+  public void corruptImageIsRejected() {
+    PropertyRegistry source = new PropertyRegistry();
+    source.getOrCreate("name", "value");
+    ByteBuffer bytes = DynamicPropertyFactory.exportGraph(source);
+    bytes.limit(bytes.limit() - 2);
+    try {
+      PropertyGraphImage.read(bytes);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
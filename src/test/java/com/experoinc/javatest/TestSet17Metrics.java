@@ -0,0 +1,120 @@
+package com.experoinc.javatest;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/// Tests that metrics count and time the hot paths only while enabled.
+public class TestSet17Metrics {
+
+  @After
+  public void disableMetrics() {
+    DynamicPropertyFactory.setMetricsEnabled(false);
+  }
+
+  @Test
+  public void propertyUsageIsCountedAndTimed() {
+    DynamicPropertyFactory.setMetricsEnabled(true);
+    final IntDynamicProperty base = DynamicPropertyFactory.createInt(1);
+    DynamicProperty<Integer> doubled = DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return base.getInt() * 2;
+        }
+      },
+      new Observer<Integer>() {
+        @Override
+        public void observe(Integer value) { /* noop */ }
+      });
+    doubled.subscribe(new Observer<Integer>() {
+      @Override
+      public void observe(Integer value) { /* noop */ }
+    });
+    long globalReads = DynamicPropertyFactory.metrics().reads();
+
+    base.setInt(2);
+    base.setInt(2);
+    base.setInt(3);
+    doubled.getValue();
+
+    PropertyMetrics baseMetrics = DynamicPropertyFactory.metrics(base);
+    PropertyMetrics doubledMetrics = DynamicPropertyFactory.metrics(doubled);
+    Assert.assertEquals(3, baseMetrics.writes());
+    Assert.assertEquals(3, baseMetrics.reads());
+    Assert.assertEquals(3, doubledMetrics.evaluations());
+    Assert.assertEquals(3, doubledMetrics.evaluationTime().count());
+    Assert.assertEquals(2, doubledMetrics.notifications());
+    Assert.assertEquals(1, doubledMetrics.reads());
+    Assert.assertTrue(DynamicPropertyFactory.metrics().reads() >= globalReads + 3);
+  }
+
+  @Test
+  public void nothingIsCountedWhileDisabled() {
+    DynamicProperty<String> p = DynamicPropertyFactory.create("a");
+    p.getValue();
+    p.setValue("b");
+    Assert.assertFalse(DynamicPropertyFactory.metricsEnabled());
+    Assert.assertEquals(0, DynamicPropertyFactory.metrics(p).reads());
+    Assert.assertEquals(0, DynamicPropertyFactory.metrics(p).writes());
+  }
+
+  @Test
+  public void histogramPercentilesAreWithinABucket() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long nanos = 1; nanos <= 1000; ++nanos) {
+      histogram.record(nanos * 1000);
+    }
+    Assert.assertEquals(1000, histogram.count());
+    Assert.assertEquals(1000000, histogram.maxNanos());
+    Assert.assertEquals(500500.0, histogram.meanNanos(), 0.0);
+    long p50 = histogram.percentileNanos(50);
+    Assert.assertTrue(p50 >= 500000 && p50 <= 500000 * 1.25);
+    long p99 = histogram.percentileNanos(99);
+    Assert.assertTrue(p99 >= 990000 && p99 <= 1000000);
+    Assert.assertEquals(0, new LatencyHistogram().percentileNanos(99));
+  }
+
+  @Test
+  public void histogramMergesWhatConcurrentThreadsRecorded() throws InterruptedException {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; ++t) {
+      final long offset = t * 1000;
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (long nanos = 1; nanos <= 1000; ++nanos) {
+            histogram.record((offset + nanos) * 1000);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals(4000, histogram.count());
+    Assert.assertEquals(4000000, histogram.maxNanos());
+    Assert.assertEquals(4000000, histogram.percentileNanos(100));
+    long p50 = histogram.percentileNanos(50);
+    Assert.assertTrue(p50 >= 2000000 && p50 <= 2000000 * 1.25);
+  }
+
+  @Test
+  public void globalMetricsAreExposedThroughJmx() throws Exception {
+    DynamicPropertyFactory.setMetricsEnabled(true);
+    DynamicPropertyFactory.create(1).getValue();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("com.experoinc.javatest:type=DynamicProperties");
+    Assert.assertEquals(Boolean.TRUE, server.getAttribute(name, "Enabled"));
+    Assert.assertTrue((Long) server.getAttribute(name, "Reads") > 0);
+    Assert.assertNotNull(server.getAttribute(name, "SlowestEvaluations"));
+  }
+}
@@ -0,0 +1,126 @@
+package com.experoinc.javatest;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/// Tests that traced waves record which properties were evaluated, changed and notified.
+public class TestSet18Tracing {
+
+  private static final Observer<Integer> NOOP = new Observer<Integer>() {
+    @Override
+    public void observe(Integer value) { /* noop */ }
+  };
+
+  @After
+  public void disableTracing() {
+    DynamicPropertyFactory.setTracingEnabled(false);
+    DynamicPropertyFactory.setSlowEvaluationBudget(0, TimeUnit.MILLISECONDS);
+    DynamicPropertyFactory.clearRecentWaves();
+  }
+
+  @Test
+  public void waveIsRecordedAsATree() {
+    final DynamicProperty<Integer> base = DynamicPropertyFactory.create(1);
+    final DynamicProperty<Integer> parity = DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return base.getValue() % 2;
+        }
+      }, NOOP);
+    final DynamicProperty<Integer> plusOne = DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return base.getValue() + 1;
+        }
+      }, NOOP);
+    DynamicProperty<Integer> sum = DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return parity.getValue() + plusOne.getValue();
+        }
+      }, NOOP);
+    sum.subscribe(NOOP);
+    sum.subscribe(NOOP);
+
+    DynamicPropertyFactory.clearRecentWaves();
+    DynamicPropertyFactory.setTracingEnabled(true);
+    base.setValue(3);
+    DynamicPropertyFactory.setTracingEnabled(false);
+
+    List<PropagationTrace> waves = DynamicPropertyFactory.recentWaves();
+    Assert.assertEquals(1, waves.size());
+    PropagationTrace wave = waves.get(0);
+    Assert.assertEquals(4, wave.nodes().size());
+    Assert.assertEquals(1, wave.roots().size());
+
+    PropagationTrace.Node root = wave.roots().get(0);
+    Assert.assertSame(base, root.property());
+    Assert.assertTrue(root.changed());
+    Assert.assertFalse(root.evaluated());
+    Assert.assertEquals(2, root.children().size());
+
+    PropagationTrace.Node parityNode = find(wave, parity);
+    Assert.assertTrue(parityNode.evaluated());
+    Assert.assertFalse(parityNode.changed());
+    Assert.assertSame(root, parityNode.parent());
+
+    PropagationTrace.Node sumNode = find(wave, sum);
+    Assert.assertTrue(sumNode.evaluated());
+    Assert.assertTrue(sumNode.changed());
+    Assert.assertSame(plusOne, sumNode.parent().property());
+    Assert.assertEquals(2, sumNode.observersNotified());
+    Assert.assertTrue(wave.toString().contains("observers notified"));
+  }
+
+  @Test
+  public void nothingIsRecordedWhileDisabled() {
+    DynamicPropertyFactory.clearRecentWaves();
+    DynamicPropertyFactory.create(1).setValue(2);
+    Assert.assertTrue(DynamicPropertyFactory.recentWaves().isEmpty());
+  }
+
+  @Test
+  public void ringBufferKeepsTheLatestWaves() {
+    DynamicProperty<Integer> p = DynamicPropertyFactory.create(0);
+    DynamicPropertyFactory.setTracingEnabled(true);
+    for (int i = 1; i <= Tracing.CAPACITY + 10; ++i) {
+      p.setValue(i);
+    }
+    List<PropagationTrace> waves = DynamicPropertyFactory.recentWaves();
+    Assert.assertEquals(Tracing.CAPACITY, waves.size());
+    Assert.assertTrue(waves.get(0).wave() > waves.get(1).wave());
+  }
+
+  @Test
+  public void slowEvaluationBudgetDoesNotChangeResults() {
+    DynamicPropertyFactory.setSlowEvaluationBudget(1, TimeUnit.NANOSECONDS);
+    final DynamicProperty<Integer> base = DynamicPropertyFactory.create(1);
+    DynamicProperty<Integer> doubled = DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          Thread.sleep(2);
+          return base.getValue() * 2;
+        }
+      }, NOOP);
+    base.setValue(5);
+    Assert.assertEquals(10, (int) doubled.getValue());
+  }
+
+  private static PropagationTrace.Node find(PropagationTrace wave, DynamicProperty<?> property) {
+    for (PropagationTrace.Node node : wave.nodes()) {
+      if (node.property() == property) {
+        return node;
+      }
+    }
+    throw new AssertionError("Property not in the wave");
+  }
+}
@@ -0,0 +1,138 @@
+package com.experoinc.javatest;
+
+import java.util.concurrent.Callable;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/// Tests that dependency cycles and self-triggering read functions fail fast instead of looping.
+public class TestSet19CycleDetection {
+
+  private static final Observer<Integer> NOOP = new Observer<Integer>() {
+    @Override
+    public void observe(Integer value) { /* noop */ }
+  };
+
+  @After
+  public void resetBudget() {
+    DynamicPropertyFactory.setEvaluationBudget(100);
+  }
+
+  @Test
+  public void readingItselfIsACycle() {
+    final DynamicProperty<Integer> base = DynamicPropertyFactory.create(0);
+    final DynamicProperty<?>[] self = new DynamicProperty<?>[1];
+    DynamicProperty<Integer> c = DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          int value = base.getValue();
+          if (self[0] != null) {
+            self[0].getValue();
+          }
+          return value;
+        }
+      }, NOOP);
+    self[0] = c;
+    try {
+      base.setValue(1);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertTrue(e.getMessage().startsWith("Dependency cycle"));
+    }
+  }
+
+  @Test
+  public void indirectCycleIsRejectedAndTheGraphKeepsWorking() {
+    final DynamicProperty<Integer> base = DynamicPropertyFactory.create(0);
+    final DynamicProperty<?>[] top = new DynamicProperty<?>[1];
+    final DynamicProperty<Integer> bottom = DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          int value = base.getValue();
+          if (value > 0 && top[0] != null) {
+            top[0].getValue();
+          }
+          return value;
+        }
+      }, NOOP);
+    DynamicProperty<Integer> plusOne = DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return bottom.getValue() + 1;
+        }
+      }, NOOP);
+    top[0] = plusOne;
+    PropertyRegistry registry = DynamicPropertyFactory.registry();
+    registry.register("test19.bottom", bottom);
+    registry.register("test19.top", plusOne);
+    try {
+      base.setValue(1);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("Dependency cycle: test19.bottom -> test19.top -> test19.bottom", e.getMessage());
+    } finally {
+      registry.remove("test19.bottom");
+      registry.remove("test19.top");
+    }
+
+    base.setValue(-5);
+    Assert.assertEquals(-5, (int) bottom.getValue());
+    Assert.assertEquals(-4, (int) plusOne.getValue());
+  }
+
+  @Test
+  public void readFunctionAlwaysChangingItsDependencyFailsCreation() {
+    DynamicPropertyFactory.setEvaluationBudget(10);
+    final DynamicProperty<Integer> o = DynamicPropertyFactory.create(0);
+    final int[] count = new int[1];
+    try {
+      DynamicPropertyFactory.create(
+        new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            ++count[0];
+            int value = o.getValue();
+            o.setValue(value + 1);
+            return value;
+          }
+        }, NOOP);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertTrue(e.getMessage().contains("more than 10 times"));
+    }
+    Assert.assertEquals(10, count[0]);
+  }
+
+  @Test
+  public void readFunctionChangingItsDependencyInAWaveFailsTheWrite() {
+    final DynamicProperty<Integer> o = DynamicPropertyFactory.create(0);
+    final boolean[] misbehave = new boolean[1];
+    DynamicProperty<Integer> c = DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          int value = o.getValue();
+          if (misbehave[0]) {
+            o.setValue(value + 1);
+          }
+          return value;
+        }
+      }, NOOP);
+
+    misbehave[0] = true;
+    try {
+      o.setValue(1);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertTrue(e.getMessage().contains("keeps changing its own dependencies"));
+    }
+
+    misbehave[0] = false;
+    o.setValue(1000);
+    Assert.assertEquals(1000, (int) c.getValue());
+  }
+}
@@ -0,0 +1,186 @@
+package com.experoinc.javatest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/// Tests that wide levels of a wave are evaluated in parallel without glitches or concurrent evaluations.
+public class TestSet20ParallelPropagation {
+
+  private static final Observer<Integer> NOOP = new Observer<Integer>() {
+    @Override
+    public void observe(Integer value) { /* noop */ }
+  };
+
+  private ExecutorService executor;
+
+  @Before
+  public void enableParallelism() {
+    executor = Executors.newFixedThreadPool(4);
+    DynamicPropertyFactory.setParallelPropagation(executor, 4, 16);
+  }
+
+  @After
+  public void disableParallelism() {
+    DynamicPropertyFactory.setParallelPropagation(null, 0, 0);
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void wideFanOutIsEvaluatedOnSeveralThreadsWithoutGlitches() {
+    final DynamicProperty<Integer> base = DynamicPropertyFactory.create(1);
+    final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    final AtomicInteger overlaps = new AtomicInteger();
+    final List<DynamicProperty<Integer>> multiples = new ArrayList<DynamicProperty<Integer>>();
+    for (int i = 1; i <= 100; ++i) {
+      final int factor = i;
+      final AtomicBoolean evaluating = new AtomicBoolean();
+      multiples.add(DynamicPropertyFactory.create(
+        new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            if (!evaluating.compareAndSet(false, true)) {
+              overlaps.incrementAndGet();
+            }
+            try {
+              threads.add(Thread.currentThread());
+              Thread.sleep(1);
+              return base.getValue() * factor;
+            } finally {
+              evaluating.set(false);
+            }
+          }
+        }, NOOP));
+    }
+    DynamicProperty<Integer> sum = DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          int total = 0;
+          for (DynamicProperty<Integer> multiple : multiples) {
+            total += multiple.getValue();
+          }
+          return total;
+        }
+      }, NOOP);
+    final List<Integer> seen = new ArrayList<Integer>();
+    sum.subscribe(new Observer<Integer>() {
+      @Override
+      public void observe(Integer value) {
+        seen.add(value);
+      }
+    });
+
+    threads.clear();
+    for (int value = 2; value <= 5; ++value) {
+      base.setValue(value);
+    }
+
+    Assert.assertEquals(5050 * 5, (int) sum.getValue());
+    Assert.assertEquals(100 * 5, (int) multiples.get(99).getValue());
+    for (int i = 0; i < seen.size(); ++i) {
+      Assert.assertEquals(5050 * (i + 2), (int) seen.get(i));
+    }
+    Assert.assertEquals(4, seen.size());
+    Assert.assertEquals(0, overlaps.get());
+    Assert.assertTrue(threads.size() > 1);
+  }
+
+  @Test
+  public void narrowLevelsStayOnTheWritingThread() {
+    final DynamicProperty<Integer> base = DynamicPropertyFactory.create(1);
+    final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    DynamicProperty<Integer> last = base;
+    for (int i = 0; i < 20; ++i) {
+      final DynamicProperty<Integer> previous = last;
+      last = DynamicPropertyFactory.create(
+        new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            threads.add(Thread.currentThread());
+            return previous.getValue() + 1;
+          }
+        }, NOOP);
+    }
+
+    threads.clear();
+    base.setValue(10);
+    Assert.assertEquals(30, (int) last.getValue());
+    Assert.assertEquals(1, threads.size());
+    Assert.assertTrue(threads.contains(Thread.currentThread()));
+  }
+
+  @Test(timeout = 10000)
+  public void snapshotTakenByAHelperSeesTheWaveInProgress() {
+    final DynamicProperty<Integer> base = DynamicPropertyFactory.create(1);
+    final DynamicProperty<String> label = DynamicPropertyFactory.create("x");
+    final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    final List<DynamicProperty<Integer>> dependents = new ArrayList<DynamicProperty<Integer>>();
+    for (int i = 0; i < 32; ++i) {
+      dependents.add(DynamicPropertyFactory.create(
+        new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            int value = base.getValue();
+            threads.add(Thread.currentThread());
+            Thread.sleep(1);
+            PropertySnapshot snapshot = DynamicPropertyFactory.snapshot(base, label);
+            DynamicPropertyFactory.exportGraph();
+            return snapshot.get(base) + value;
+          }
+        }, NOOP));
+    }
+
+    threads.clear();
+    base.setValue(7);
+    for (DynamicProperty<Integer> dependent : dependents) {
+      Assert.assertEquals(14, (int) dependent.getValue());
+    }
+    Assert.assertTrue(threads.size() > 1);
+  }
+
+  @Test
+  public void cycleFoundByAHelperFailsTheWrite() {
+    final DynamicProperty<Integer> base = DynamicPropertyFactory.create(1);
+    final DynamicProperty<?>[] self = new DynamicProperty<?>[1];
+    final List<DynamicProperty<Integer>> dependents = new ArrayList<DynamicProperty<Integer>>();
+    for (int i = 0; i < 32; ++i) {
+      final boolean cyclic = i == 17;
+      dependents.add(DynamicPropertyFactory.create(
+        new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            int value = base.getValue();
+            if (cyclic && value == 2) {
+              self[0].getValue();
+            }
+            return value;
+          }
+        }, NOOP));
+    }
+    self[0] = dependents.get(17);
+
+    try {
+      base.setValue(2);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertTrue(e.getMessage().startsWith("Dependency cycle"));
+    }
+
+    base.setValue(3);
+    for (DynamicProperty<Integer> dependent : dependents) {
+      Assert.assertEquals(3, (int) dependent.getValue());
+    }
+  }
+}
@@ -0,0 +1,236 @@
+package com.experoinc.javatest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/// Tests that a change reaches every calculated property exactly once, in dependency order.
+public class TestSet4Propagation {
+
+  @Test
+  public void diamondSinkIsEvaluatedOncePerChangeAndNeverSeesAMixOfOldAndNewInputs() {
+    final DynamicProperty<Integer> a = DynamicPropertyFactory.create(1);
+    final DynamicProperty<Integer> b = DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return a.getValue() * 10;
+        }
+      },
+      new Observer<Integer>() {
+        @Override
+        public void observe(Integer value) { /* noop */ }
+      });
+    final DynamicProperty<Integer> c = DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return a.getValue() * 100;
+        }
+      },
+      new Observer<Integer>() {
+        @Override
+        public void observe(Integer value) { /* noop */ }
+      });
+    final int[] evalCount = new int[]{0};
+    final int[] glitches = new int[]{0};
+    DynamicProperty<Integer> d = DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          evalCount[0]++;
+          if (b.getValue() * 10 != c.getValue()) {
+            glitches[0]++;
+          }
+          return b.getValue() + c.getValue();
+        }
+      },
+      new Observer<Integer>() {
+        @Override
+        public void observe(Integer value) { /* noop */ }
+      });
+
+    Assert.assertEquals(1, evalCount[0]);
+    Assert.assertEquals(110, (int) d.getValue());
+
+    a.setValue(2);
+    Assert.assertEquals(2, evalCount[0]);
+    Assert.assertEquals(220, (int) d.getValue());
+
+    a.setValue(3);
+    Assert.assertEquals(3, evalCount[0]);
+    Assert.assertEquals(330, (int) d.getValue());
+    Assert.assertEquals(0, glitches[0]);
+  }
+
+  @Test
+  public void sinkReadingBothEndsOfAChainIsEvaluatedAfterTheWholeChain() {
+    final DynamicProperty<Integer> a = DynamicPropertyFactory.create(1);
+    final DynamicProperty<Integer>[] chain = new DynamicProperty[4];
+    for (int i = 0; i < chain.length; ++i) {
+      final DynamicProperty<Integer> previous = i == 0 ? a : chain[i - 1];
+      chain[i] = DynamicPropertyFactory.create(
+        new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            return previous.getValue() + 1;
+          }
+        },
+        new Observer<Integer>() {
+          @Override
+          public void observe(Integer value) { /* noop */ }
+        });
+    }
+    final int[] evalCount = new int[]{0};
+    DynamicProperty<Integer> sink = DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          evalCount[0]++;
+          return chain[chain.length - 1].getValue() - a.getValue();
+        }
+      },
+      new Observer<Integer>() {
+        @Override
+        public void observe(Integer value) { /* noop */ }
+      });
+
+    Assert.assertEquals(4, (int) sink.getValue());
+    a.setValue(10);
+    a.setValue(20);
+    Assert.assertEquals(4, (int) sink.getValue());
+    // the difference never changes, so every evaluation saw a consistent chain
+    Assert.assertEquals(3, evalCount[0]);
+  }
+
+  @Test
+  public void writesArrivingDuringOneEvaluationCollapseIntoOneFollowUpEvaluation() throws InterruptedException {
+    final DynamicProperty<Integer> o = DynamicPropertyFactory.create(0);
+    final CountDownLatch evaluating = new CountDownLatch(1);
+    final CountDownLatch writesDone = new CountDownLatch(1);
+    final boolean[] block = new boolean[]{false};
+    final int[] count = new int[]{0};
+    DynamicProperty<Integer> c = DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          ++count[0];
+          int result = o.getValue();
+          if (block[0]) {
+            block[0] = false;
+            evaluating.countDown();
+            Assert.assertTrue(writesDone.await(2, TimeUnit.SECONDS));
+          }
+          return result;
+        }
+      },
+      new Observer<Integer>() {
+        @Override
+        public void observe(Integer value) { /* noop */ }
+      });
+
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          evaluating.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 2; i <= 100; ++i) {
+          o.setValue(i);
+        }
+        writesDone.countDown();
+      }
+    });
+    writer.start();
+
+    block[0] = true;
+    o.setValue(1);
+    writer.join();
+
+    // the construction, the blocked evaluation and a single one for all 99 writes
+    Assert.assertEquals(3, count[0]);
+    Assert.assertEquals(100, (int) c.getValue());
+  }
+
+  @Test
+  public void batchedWritesArePropagatedInASinglePass() {
+    final DynamicProperty<Integer>[] inputs = new DynamicProperty[100];
+    for (int i = 0; i < inputs.length; ++i) {
+      inputs[i] = DynamicPropertyFactory.create(0);
+    }
+    final int[] evalCount = new int[]{0};
+    DynamicProperty<Integer> sum = DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          evalCount[0]++;
+          int total = 0;
+          for (DynamicProperty<Integer> input : inputs) {
+            total += input.getValue();
+          }
+          return total;
+        }
+      },
+      new Observer<Integer>() {
+        @Override
+        public void observe(Integer value) { /* noop */ }
+      });
+    final List<Integer> sums = new ArrayList<Integer>();
+    sum.subscribe(new Observer<Integer>() {
+      @Override
+      public void observe(Integer value) {
+        sums.add(value);
+      }
+    });
+    final List<Integer> firstInput = new ArrayList<Integer>();
+    inputs[0].subscribe(new Observer<Integer>() {
+      @Override
+      public void observe(Integer value) {
+        firstInput.add(value);
+      }
+    });
+
+    DynamicPropertyFactory.runInBatch(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < inputs.length; ++i) {
+          inputs[i].setValue(1);
+        }
+        inputs[0].setValue(2);
+        Assert.assertTrue(firstInput.isEmpty());
+      }
+    });
+
+    Assert.assertEquals(2, evalCount[0]);
+    Assert.assertEquals(101, (int) sum.getValue());
+    Assert.assertEquals(1, sums.size());
+    Assert.assertEquals(1, firstInput.size());
+    Assert.assertEquals(2, (int) firstInput.get(0));
+  }
+
+  @Test
+  public void observerWritingTheSamePropertyIsNotifiedOfItsOwnWrite() {
+    final DynamicProperty<Integer> p = DynamicPropertyFactory.create(0);
+    final List<Integer> notifications = new ArrayList<Integer>();
+    p.subscribe(new Observer<Integer>() {
+      @Override
+      public void observe(Integer value) {
+        notifications.add(value);
+        if (value < 3) {
+          p.setValue(value + 1);
+        }
+      }
+    });
+
+    p.setValue(1);
+    Assert.assertEquals(3, (int) p.getValue());
+    Assert.assertEquals(3, notifications.size());
+  }
+}
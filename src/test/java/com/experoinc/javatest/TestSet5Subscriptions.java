@@ -0,0 +1,302 @@
+package com.experoinc.javatest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/// Tests subscriber bookkeeping under heavy churn and the subscribe / notify / close lifecycle.
+public class TestSet5Subscriptions {
+
+  static final class Entry implements SubscriberRegistry.Entry {
+    final int id;
+    private int slot = SubscriberRegistry.NOT_REGISTERED;
+
+    Entry(int id) {
+      this.id = id;
+    }
+
+    @Override
+    public int slot() {
+      return slot;
+    }
+
+    @Override
+    public void slot(int slot) {
+      this.slot = slot;
+    }
+  }
+
+  private static List<Integer> ids(SubscriberRegistry<Entry> registry) {
+    List<Integer> ids = new ArrayList<Integer>();
+    AtomicReferenceArray<Entry> slots = registry.snapshot();
+    for (int i = 0; i < slots.length(); ++i) {
+      if (slots.get(i) != null) {
+        ids.add(slots.get(i).id);
+      }
+    }
+    return ids;
+  }
+
+  @Test
+  public void registryKeepsRegistrationOrderAcrossRemovalsAndCompaction() {
+    SubscriberRegistry<Entry> registry = new SubscriberRegistry<Entry>();
+    List<Entry> entries = new ArrayList<Entry>();
+    for (int i = 0; i < 1000; ++i) {
+      Entry entry = new Entry(i);
+      entries.add(entry);
+      registry.add(entry);
+    }
+    Assert.assertEquals(1000, registry.size());
+
+    List<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < 1000; ++i) {
+      if (i % 10 == 0) {
+        expected.add(i);
+      } else {
+        Assert.assertTrue(registry.remove(entries.get(i)));
+      }
+    }
+    Assert.assertEquals(100, registry.size());
+    Assert.assertEquals(expected, ids(registry));
+    // removed entries were compacted away
+    Assert.assertTrue(registry.snapshot().length() < 1000);
+  }
+
+  @Test
+  public void removingTwiceIsANoop() {
+    SubscriberRegistry<Entry> registry = new SubscriberRegistry<Entry>();
+    Entry a = new Entry(1);
+    Entry b = new Entry(2);
+    registry.add(a);
+    registry.add(b);
+
+    Assert.assertTrue(registry.remove(a));
+    Assert.assertFalse(registry.remove(a));
+    Assert.assertEquals(1, registry.size());
+    Assert.assertEquals(2, ids(registry).get(0).intValue());
+
+    Assert.assertTrue(registry.remove(b));
+    Assert.assertTrue(registry.isEmpty());
+  }
+
+  @Test
+  public void churnDoesNotGrowTheSlotArray() {
+    SubscriberRegistry<Entry> registry = new SubscriberRegistry<Entry>();
+    Entry resident = new Entry(-1);
+    registry.add(resident);
+    for (int i = 0; i < 100000; ++i) {
+      Entry entry = new Entry(i);
+      registry.add(entry);
+      registry.remove(entry);
+    }
+    Assert.assertEquals(1, registry.size());
+    Assert.assertTrue(registry.snapshot().length() <= 8);
+  }
+
+  @Test
+  public void closingIsIdempotent() throws IOException {
+    final DynamicProperty<Integer> p = DynamicPropertyFactory.create(0);
+    final List<Integer> notifications = new ArrayList<Integer>();
+    Closeable sub = p.subscribe(new Observer<Integer>() {
+      @Override
+      public void observe(Integer value) {
+        notifications.add(value);
+      }
+    });
+    p.setValue(1);
+    sub.close();
+    sub.close();
+    p.setValue(2);
+    Assert.assertEquals(1, notifications.size());
+  }
+
+  @Test
+  public void subscriptionCanCloseItselfAndOthersFromInsideACallback() throws IOException {
+    final DynamicProperty<Integer> p = DynamicPropertyFactory.create(0);
+    final List<String> notifications = new ArrayList<String>();
+    final Closeable[] subs = new Closeable[2];
+    subs[0] = p.subscribe(new Observer<Integer>() {
+      @Override
+      public void observe(Integer value) {
+        notifications.add("first " + value);
+        try {
+          subs[0].close();
+          subs[1].close();
+        } catch (IOException e) {
+          Assert.fail();
+        }
+      }
+    });
+    subs[1] = p.subscribe(new Observer<Integer>() {
+      @Override
+      public void observe(Integer value) {
+        notifications.add("second " + value);
+      }
+    });
+
+    p.setValue(1);
+    p.setValue(2);
+    Assert.assertEquals(1, notifications.size());
+    Assert.assertEquals("first 1", notifications.get(0));
+  }
+
+  @Test
+  public void subscriptionMadeDuringANotificationOnlySeesLaterValues() {
+    final DynamicProperty<Integer> p = DynamicPropertyFactory.create(0);
+    final List<Integer> late = new ArrayList<Integer>();
+    final boolean[] subscribed = new boolean[]{false};
+    p.subscribe(new Observer<Integer>() {
+      @Override
+      public void observe(Integer value) {
+        if (!subscribed[0]) {
+          subscribed[0] = true;
+          p.subscribe(new Observer<Integer>() {
+            @Override
+            public void observe(Integer value) {
+              late.add(value);
+            }
+          });
+        }
+      }
+    });
+
+    p.setValue(1);
+    Assert.assertTrue(late.isEmpty());
+    p.setValue(2);
+    Assert.assertEquals(1, late.size());
+    Assert.assertEquals(2, late.get(0).intValue());
+  }
+
+  @Test
+  public void shortLivedSubscriptionsAreReleased() throws IOException {
+    final DynamicProperty<Integer> p = DynamicPropertyFactory.create(0);
+    final int[] calls = new int[]{0};
+    for (int i = 0; i < 10000; ++i) {
+      Closeable sub = p.subscribe(new Observer<Integer>() {
+        @Override
+        public void observe(Integer value) {
+          calls[0]++;
+        }
+      });
+      p.setValue(i + 1);
+      sub.close();
+    }
+    Assert.assertEquals(10000, calls[0]);
+    p.setValue(-1);
+    Assert.assertEquals(10000, calls[0]);
+  }
+
+  @Test
+  public void executorDispatchKeepsEachObserversValuesInOrder() throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    DynamicPropertyFactory.setObserverExecutor(executor);
+    try {
+      final DynamicProperty<Integer> p = DynamicPropertyFactory.create(0);
+      final CountDownLatch received = new CountDownLatch(2 * 500);
+      final List<List<Integer>> notifications = new ArrayList<List<Integer>>();
+      for (int i = 0; i < 2; ++i) {
+        final List<Integer> values = Collections.synchronizedList(new ArrayList<Integer>());
+        notifications.add(values);
+        p.subscribe(new Observer<Integer>() {
+          @Override
+          public void observe(Integer value) {
+            values.add(value);
+            received.countDown();
+          }
+        });
+      }
+
+      List<Integer> expected = new ArrayList<Integer>();
+      for (int i = 1; i <= 500; ++i) {
+        p.setValue(i);
+        expected.add(i);
+      }
+      Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+      Assert.assertEquals(expected, notifications.get(0));
+      Assert.assertEquals(expected, notifications.get(1));
+    } finally {
+      DynamicPropertyFactory.setObserverExecutor(null);
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void slowObserverDoesNotBlockWritersWhenDispatchedOnAnExecutor() throws InterruptedException {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    DynamicPropertyFactory.setObserverExecutor(executor);
+    final CountDownLatch release = new CountDownLatch(1);
+    try {
+      final DynamicProperty<Integer> p = DynamicPropertyFactory.create(0);
+      p.subscribe(new Observer<Integer>() {
+        @Override
+        public void observe(Integer value) {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+
+      p.setValue(1);
+      p.setValue(2);
+      Assert.assertEquals(2, (int) p.getValue());
+    } finally {
+      release.countDown();
+      DynamicPropertyFactory.setObserverExecutor(null);
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void latestValueSubscriptionOnlyReceivesTheNewestPendingValue() throws InterruptedException {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    DynamicPropertyFactory.setObserverExecutor(executor);
+    final CountDownLatch observing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(2);
+    try {
+      final DynamicProperty<Integer> p = DynamicPropertyFactory.create(0);
+      final List<Integer> conflated = Collections.synchronizedList(new ArrayList<Integer>());
+      p.subscribe(new Observer<Integer>() {
+        @Override
+        public void observe(Integer value) {
+          conflated.add(value);
+          observing.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          done.countDown();
+        }
+      }, NotificationMode.LATEST_VALUE);
+
+      p.setValue(1);
+      Assert.assertTrue(observing.await(5, TimeUnit.SECONDS));
+      for (int i = 2; i <= 1000; ++i) {
+        p.setValue(i);
+      }
+      release.countDown();
+
+      Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+      Assert.assertEquals(Integer.valueOf(1), conflated.get(0));
+      Assert.assertEquals(Integer.valueOf(1000), conflated.get(1));
+      Assert.assertEquals(2, conflated.size());
+    } finally {
+      release.countDown();
+      DynamicPropertyFactory.setObserverExecutor(null);
+      executor.shutdown();
+    }
+  }
+}
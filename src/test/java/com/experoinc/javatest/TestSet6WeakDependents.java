@@ -0,0 +1,83 @@
+package com.experoinc.javatest;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/// Tests that abandoned weakly referenced calculated properties are collected and unsubscribed.
+public class TestSet6WeakDependents {
+
+  private static DynamicProperty<Integer> derive(final DynamicProperty<Integer> base, final int[] evalCount, boolean weak) {
+    Callable<Integer> read = new Callable<Integer>() {
+      @Override
+      public Integer call() throws Exception {
+        evalCount[0]++;
+        return base.getValue() * 2;
+      }
+    };
+    Observer<Integer> write = new Observer<Integer>() {
+      @Override
+      public void observe(Integer value) { /* noop */ }
+    };
+    return weak ? DynamicPropertyFactory.createWeak(read, write) : DynamicPropertyFactory.create(read, write);
+  }
+
+  private static int dependents(DynamicProperty<?> property) {
+    return ((AbstractDynamicProperty<?>) property).dependents.size();
+  }
+
+  private static boolean collect(WeakReference<?> probe) throws InterruptedException {
+    for (int i = 0; i < 100 && probe.get() != null; ++i) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    return probe.get() == null;
+  }
+
+  @Test
+  public void abandonedWeakPropertyIsCollectedAndReleasesItsEdges() throws InterruptedException {
+    DynamicProperty<Integer> base = DynamicPropertyFactory.create(1);
+    int[] evalCount = new int[]{0};
+    WeakReference<DynamicProperty<Integer>> probe = new WeakReference<DynamicProperty<Integer>>(derive(base, evalCount, true));
+    Assert.assertEquals(1, evalCount[0]);
+    Assert.assertEquals(1, dependents(base));
+
+    Assert.assertTrue(collect(probe));
+    for (int i = 2; i < 200 && dependents(base) > 0; ++i) {
+      base.setValue(i);
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(0, dependents(base));
+    Assert.assertEquals(1, evalCount[0]);
+  }
+
+  @Test
+  public void referencedWeakPropertyKeepsBeingReevaluated() throws InterruptedException {
+    DynamicProperty<Integer> base = DynamicPropertyFactory.create(1);
+    int[] evalCount = new int[]{0};
+    DynamicProperty<Integer> derived = derive(base, evalCount, true);
+    DynamicProperty<Integer> sink = derive(derived, new int[]{0}, true);
+
+    // only the sink is referenced; it keeps the weak property it reads alive
+    WeakReference<DynamicProperty<Integer>> probe = new WeakReference<DynamicProperty<Integer>>(derived);
+    derived = null;
+    Assert.assertFalse(collect(probe));
+
+    base.setValue(5);
+    Assert.assertEquals(2, evalCount[0]);
+    Assert.assertEquals(20, (int) sink.getValue());
+  }
+
+  @Test
+  public void strongPropertyIsKeptAliveByItsDependencies() throws InterruptedException {
+    DynamicProperty<Integer> base = DynamicPropertyFactory.create(1);
+    int[] evalCount = new int[]{0};
+    WeakReference<DynamicProperty<Integer>> probe = new WeakReference<DynamicProperty<Integer>>(derive(base, evalCount, false));
+
+    Assert.assertFalse(collect(probe));
+    base.setValue(2);
+    Assert.assertEquals(2, evalCount[0]);
+  }
+}
@@ -0,0 +1,90 @@
+package com.experoinc.javatest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/// Tests that primitive properties notify primitive observers and take part in calculated properties.
+public class TestSet7PrimitiveProperties {
+
+  @Test
+  public void intObserverIsNotifiedOfChangedValuesOnly() {
+    IntDynamicProperty p = DynamicPropertyFactory.createInt(1);
+    final int[] last = new int[]{0};
+    final int[] calls = new int[]{0};
+    p.subscribe(new IntObserver() {
+      @Override
+      public void observe(int value) {
+        last[0] = value;
+        calls[0]++;
+      }
+    });
+
+    p.setInt(1);
+    Assert.assertEquals(0, calls[0]);
+    p.setInt(2);
+    p.setValue(3);
+    Assert.assertEquals(2, calls[0]);
+    Assert.assertEquals(3, last[0]);
+    Assert.assertEquals(3, p.getInt());
+  }
+
+  @Test
+  public void boxedObserverOfAPrimitivePropertyReceivesBoxedValues() {
+    LongDynamicProperty p = DynamicPropertyFactory.createLong(1L);
+    final List<Long> values = new ArrayList<Long>();
+    p.subscribe(new Observer<Long>() {
+      @Override
+      public void observe(Long value) {
+        values.add(value);
+      }
+    });
+
+    p.setLong(Long.MAX_VALUE);
+    Assert.assertEquals(1, values.size());
+    Assert.assertEquals(Long.MAX_VALUE, values.get(0).longValue());
+  }
+
+  @Test
+  public void nanIsEqualToItself() {
+    DoubleDynamicProperty p = DynamicPropertyFactory.createDouble(Double.NaN);
+    final int[] calls = new int[]{0};
+    p.subscribe(new DoubleObserver() {
+      @Override
+      public void observe(double value) {
+        calls[0]++;
+      }
+    });
+
+    p.setDouble(Double.NaN);
+    Assert.assertEquals(0, calls[0]);
+    p.setDouble(0.5);
+    Assert.assertEquals(1, calls[0]);
+  }
+
+  @Test
+  public void calculatedPropertyReadingPrimitivePropertiesIsReevaluated() {
+    final IntDynamicProperty count = DynamicPropertyFactory.createInt(2);
+    final DoubleDynamicProperty price = DynamicPropertyFactory.createDouble(1.5);
+    DynamicProperty<Double> total = DynamicPropertyFactory.create(
+      new Callable<Double>() {
+        @Override
+        public Double call() throws Exception {
+          return count.getInt() * price.getDouble();
+        }
+      },
+      new Observer<Double>() {
+        @Override
+        public void observe(Double value) { /* noop */ }
+      });
+
+    Assert.assertEquals(3.0, total.getValue(), 0.0);
+    count.setInt(4);
+    Assert.assertEquals(6.0, total.getValue(), 0.0);
+    price.setValue(2.0);
+    Assert.assertEquals(8.0, total.getValue(), 0.0);
+  }
+}
@@ -0,0 +1,111 @@
+package com.experoinc.javatest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/// Tests that the equivalence of a property decides which writes and results are changes.
+public class TestSet8Equivalence {
+
+  private static <T> List<T> record(DynamicProperty<T> property) {
+    final List<T> values = new ArrayList<T>();
+    property.subscribe(new Observer<T>() {
+      @Override
+      public void observe(T value) {
+        values.add(value);
+      }
+    });
+    return values;
+  }
+
+  @Test
+  public void nullValuesAreComparedWithoutFailing() {
+    DynamicProperty<String> p = DynamicPropertyFactory.create(null);
+    List<String> values = record(p);
+
+    p.setValue(null);
+    Assert.assertTrue(values.isEmpty());
+    p.setValue("a");
+    p.setValue(null);
+    Assert.assertEquals(2, values.size());
+    Assert.assertNull(p.getValue());
+  }
+
+  @Test
+  public void identityOnlySkipsTheSameInstance() {
+    List<Integer> first = new ArrayList<Integer>();
+    DynamicProperty<List<Integer>> p = DynamicPropertyFactory.create(first, Equivalence.identity());
+    List<List<Integer>> values = record(p);
+
+    p.setValue(first);
+    Assert.assertTrue(values.isEmpty());
+    p.setValue(new ArrayList<Integer>());
+    Assert.assertEquals(1, values.size());
+  }
+
+  @Test
+  public void comparatorDecidesWhatIsAChange() {
+    DynamicProperty<String> p = DynamicPropertyFactory.create("abc", Equivalence.comparing(String.CASE_INSENSITIVE_ORDER));
+    List<String> values = record(p);
+
+    p.setValue("ABC");
+    Assert.assertEquals("abc", p.getValue());
+    p.setValue("abd");
+    p.setValue(null);
+    Assert.assertEquals(2, values.size());
+  }
+
+  @Test
+  public void resultWithinToleranceDoesNotReevaluateDependents() {
+    final DynamicProperty<Double> input = DynamicPropertyFactory.create(1.0);
+    final DynamicProperty<Double> rounded = DynamicPropertyFactory.create(
+      new Callable<Double>() {
+        @Override
+        public Double call() throws Exception {
+          return input.getValue();
+        }
+      },
+      new Observer<Double>() {
+        @Override
+        public void observe(Double value) { /* noop */ }
+      },
+      Equivalence.<Double>tolerance(0.1));
+    final int[] evalCount = new int[]{0};
+    DynamicProperty<Double> sink = DynamicPropertyFactory.create(
+      new Callable<Double>() {
+        @Override
+        public Double call() throws Exception {
+          evalCount[0]++;
+          return rounded.getValue() * 2;
+        }
+      },
+      new Observer<Double>() {
+        @Override
+        public void observe(Double value) { /* noop */ }
+      });
+
+    input.setValue(1.05);
+    input.setValue(1.09);
+    Assert.assertEquals(1, evalCount[0]);
+    Assert.assertEquals(2.0, sink.getValue(), 0.0);
+
+    input.setValue(1.15);
+    Assert.assertEquals(2, evalCount[0]);
+    Assert.assertEquals(2.3, sink.getValue(), 1e-9);
+  }
+
+  @Test
+  public void primitiveDoubleWithToleranceIgnoresSmallChanges() {
+    DoubleDynamicProperty p = DynamicPropertyFactory.createDouble(10.0, 0.5);
+    List<Double> values = record(p);
+
+    p.setDouble(10.4);
+    Assert.assertEquals(10.0, p.getDouble(), 0.0);
+    p.setDouble(10.6);
+    Assert.assertEquals(1, values.size());
+    Assert.assertEquals(10.6, p.getDouble(), 0.0);
+  }
+}
@@ -0,0 +1,152 @@
+package com.experoinc.javatest;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/// Tests that lazy calculated properties are only evaluated when their value is needed.
+public class TestSet9LazyProperties {
+
+  private static DynamicProperty<Integer> lazyTimesTwo(final DynamicProperty<Integer> input, final int[] evalCount) {
+    return DynamicPropertyFactory.createLazy(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          evalCount[0]++;
+          return input.getValue() * 2;
+        }
+      },
+      new Observer<Integer>() {
+        @Override
+        public void observe(Integer value) { /* noop */ }
+      });
+  }
+
+  @Test
+  public void unreadLazyPropertyIsEvaluatedOnceOnTheNextRead() {
+    DynamicProperty<Integer> input = DynamicPropertyFactory.create(1);
+    int[] evalCount = new int[]{0};
+    DynamicProperty<Integer> lazy = lazyTimesTwo(input, evalCount);
+    Assert.assertEquals(0, evalCount[0]);
+
+    Assert.assertEquals(2, (int) lazy.getValue());
+    Assert.assertEquals(1, evalCount[0]);
+    for (int i = 2; i <= 100; ++i) {
+      input.setValue(i);
+    }
+    Assert.assertEquals(1, evalCount[0]);
+    Assert.assertEquals(200, (int) lazy.getValue());
+    Assert.assertEquals(200, (int) lazy.getValue());
+    Assert.assertEquals(2, evalCount[0]);
+  }
+
+  @Test
+  public void subscribedLazyPropertyIsEvaluatedOnEveryChange() throws Exception {
+    DynamicProperty<Integer> input = DynamicPropertyFactory.create(1);
+    int[] evalCount = new int[]{0};
+    DynamicProperty<Integer> lazy = lazyTimesTwo(input, evalCount);
+    final List<Integer> values = new ArrayList<Integer>();
+    Closeable subscription = lazy.subscribe(new Observer<Integer>() {
+      @Override
+      public void observe(Integer value) {
+        values.add(value);
+      }
+    });
+    Assert.assertEquals(1, evalCount[0]);
+
+    input.setValue(2);
+    input.setValue(3);
+    Assert.assertEquals(3, evalCount[0]);
+    Assert.assertEquals(2, values.size());
+    Assert.assertEquals(6, (int) values.get(1));
+
+    subscription.close();
+    input.setValue(4);
+    Assert.assertEquals(3, evalCount[0]);
+    Assert.assertEquals(8, (int) lazy.getValue());
+  }
+
+  @Test
+  public void eagerDependentPullsTheLazyValueItReads() {
+    DynamicProperty<Integer> input = DynamicPropertyFactory.create(1);
+    int[] lazyCount = new int[]{0};
+    final DynamicProperty<Integer> lazy = lazyTimesTwo(input, lazyCount);
+    DynamicProperty<Integer> eager = DynamicPropertyFactory.create(
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return lazy.getValue() + 1;
+        }
+      },
+      new Observer<Integer>() {
+        @Override
+        public void observe(Integer value) { /* noop */ }
+      });
+    Assert.assertEquals(3, (int) eager.getValue());
+
+    input.setValue(5);
+    Assert.assertEquals(11, (int) eager.getValue());
+    Assert.assertEquals(2, lazyCount[0]);
+  }
+
+  @Test
+  public void chainOfLazyPropertiesIsOnlyMarkedStale() {
+    DynamicProperty<Integer> input = DynamicPropertyFactory.create(1);
+    int[] firstCount = new int[]{0};
+    int[] secondCount = new int[]{0};
+    DynamicProperty<Integer> first = lazyTimesTwo(input, firstCount);
+    DynamicProperty<Integer> second = lazyTimesTwo(first, secondCount);
+    Assert.assertEquals(4, (int) second.getValue());
+
+    for (int i = 2; i <= 10; ++i) {
+      input.setValue(i);
+    }
+    Assert.assertEquals(1, firstCount[0]);
+    Assert.assertEquals(1, secondCount[0]);
+    Assert.assertEquals(40, (int) second.getValue());
+    Assert.assertEquals(2, firstCount[0]);
+    Assert.assertEquals(2, secondCount[0]);
+  }
+
+  @Test(timeout = 10000)
+  public void staleLazyPropertyReadInsideABatchThatQueuedItReturns() throws InterruptedException {
+    final DynamicProperty<Integer> base = DynamicPropertyFactory.create(1);
+    int[] evalCount = new int[]{0};
+    final DynamicProperty<Integer> lazy = lazyTimesTwo(base, evalCount);
+    Assert.assertEquals(2, (int) lazy.getValue());
+    base.setValue(5);
+
+    final int[] readInBatch = new int[1];
+    final int[] readElsewhere = new int[1];
+    final Thread other = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        readElsewhere[0] = lazy.getValue();
+      }
+    });
+    DynamicPropertyFactory.runInBatch(new Runnable() {
+      @Override
+      public void run() {
+        base.setValue(2);
+        readInBatch[0] = lazy.getValue();
+        // the other reader waits for the batch to propagate
+        other.start();
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    other.join();
+
+    // the value from before the batch: the batch propagates when it ends
+    Assert.assertEquals(2, readInBatch[0]);
+    Assert.assertEquals(4, readElsewhere[0]);
+    Assert.assertEquals(4, (int) lazy.getValue());
+  }
+}